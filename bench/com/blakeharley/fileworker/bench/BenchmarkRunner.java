@@ -0,0 +1,26 @@
+package com.blakeharley.fileworker.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the microbenchmarks with the GC profiler attached, so every result comes with
+ * its allocation rate. Pass a regular expression to only run some of them.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class BenchmarkRunner
+{
+	public static void main(String[] args) throws RunnerException
+	{
+		Options options = new OptionsBuilder()
+			.include(args.length > 0 ? args[0] : "com\\.blakeharley\\.fileworker\\..*Benchmark")
+			.addProfiler(GCProfiler.class)
+			.build();
+		
+		new Runner(options).run();
+	}
+}
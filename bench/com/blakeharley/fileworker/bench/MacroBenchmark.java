@@ -0,0 +1,377 @@
+package com.blakeharley.fileworker.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.blakeharley.fileworker.utils.CullBenchmark;
+import com.blakeharley.fileworker.utils.Logger;
+import com.blakeharley.fileworker.worker.AudioTagWorker;
+import com.blakeharley.fileworker.worker.CompositeWorker;
+import com.blakeharley.fileworker.worker.decommenter.Decommenter;
+import com.blakeharley.fileworker.worker.mover.Mover;
+
+/**
+ * Runs a worker end to end over a generated library and reports how it went: files and
+ * megabytes per second, the peak heap and the time spent collecting garbage. Where the
+ * microbenchmarks time the pieces, this times the whole job, scan and threads included.
+ * 
+ * Every run gets a fresh library from SyntheticLibrary, so the decommenter always has
+ * comments to remove and the mover always has a destination to fill. Writing the library
+ * isn't timed. The first runs only warm up the JVM and aren't reported.
+ * 
+ *   java com.blakeharley.fileworker.bench.MacroBenchmark [options] <worker>
+ * 
+ * The library lives in a temporary directory unless --dir says otherwise. Just written
+ * files are usually still in the page cache anyway, but for runs that compare between
+ * machines put it on a tmpfs, e.g. --dir /dev/shm/fileworker.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class MacroBenchmark
+{
+	protected static final String USAGE =
+		"Usage: MacroBenchmark [options] <worker>\n" +
+		"\n" +
+		"The worker is decommenter, mover or both joined with +, e.g. mover+decommenter.\n" +
+		"\n" +
+		"Options:\n" +
+		"  --dir <path>       Where to put the library (default: a temporary directory)\n" +
+		"  --runs <n>         Runs to report (default: 5)\n" +
+		"  --warmup <n>       Runs before those that aren't reported (default: 2)\n" +
+		"  --threads <n>      Files worked on at the same time (default: 1)\n" +
+		"  --pipeline <r,t,w> Read, transform and write in overlapping stages\n" +
+		"\n" +
+		"Any option of SyntheticLibrary (--files, --artwork, --comments, ...) shapes the library.\n";
+	
+	/**
+	 * How a single run went.
+	 */
+	public static class Result
+	{
+		public int files;
+		public int failed;
+		public long bytes;
+		public long nanos;
+		public long peakHeap;
+		public long gcMillis;
+		public long gcCount;
+		
+		public double getFilesPerSecond()
+		{
+			return this.files * 1e9 / this.nanos;
+		}
+		
+		public double getMegabytesPerSecond()
+		{
+			return this.bytes * 1e3 / this.nanos;
+		}
+		
+		@Override
+		public String toString()
+		{
+			return String.format("%d files in %.2f s, %.1f files/s, %.1f MB/s, peak heap %.1f MB, GC %d ms in %d collections",
+				this.files, this.nanos / 1e9, this.getFilesPerSecond(), this.getMegabytesPerSecond(),
+				this.peakHeap / 1e6, this.gcMillis, this.gcCount)
+				+ (this.failed > 0 ? ", " + this.failed + " FAILED" : "");
+		}
+	}
+	
+	protected String workers;
+	
+	protected File base;
+	
+	protected SyntheticLibrary library;
+	
+	protected int threads = 1;
+	
+	protected int[] stageThreads;
+	
+	/**
+	 * Creates a benchmark of the given workers.
+	 * 
+	 * @param workers The workers, joined with + like the batch runner takes them
+	 * @param base The directory to generate the library in
+	 * @param library The settings of the library
+	 */
+	public MacroBenchmark(String workers, File base, SyntheticLibrary library)
+	{
+		this.workers = workers;
+		this.base = base;
+		this.library = library;
+	}
+	
+	/**
+	 * Generates a fresh library and runs the workers over it once.
+	 * 
+	 * @return How it went
+	 * @throws IOException If the library couldn't be written
+	 */
+	public Result run() throws IOException
+	{
+		File source = new File(this.base, "library");
+		File destination = new File(this.base, "out");
+		CullBenchmark.delete(source);
+		CullBenchmark.delete(destination);
+		
+		Result result = new Result();
+		result.bytes = this.library.write(source);
+		
+		// Every run gets its own logger, which has a thread of its own to close afterwards
+		Logger logger = new Logger();
+		AudioTagWorker worker = this.createWorker(source, destination);
+		worker.setLogger(logger);
+		worker.setThreads(this.threads);
+		if (this.stageThreads != null)
+		{
+			worker.setPipelined(true);
+			worker.setStageThreads(this.stageThreads[0], this.stageThreads[1], this.stageThreads[2]);
+		}
+		
+		// Start from an empty heap, so one run's garbage isn't collected in the next
+		System.gc();
+		List<MemoryPoolMXBean> pools = heapPools();
+		for (MemoryPoolMXBean pool : pools)
+		{
+			pool.resetPeakUsage();
+		}
+		long[] gc = gcTotals();
+		
+		long start = System.nanoTime();
+		try
+		{
+			worker.doWork();
+		}
+		finally
+		{
+			result.nanos = System.nanoTime() - start;
+			logger.close();
+		}
+		
+		// Each pool peaks at its own time, so together they're an upper bound
+		for (MemoryPoolMXBean pool : pools)
+		{
+			result.peakHeap += pool.getPeakUsage().getUsed();
+		}
+		
+		long[] after = gcTotals();
+		result.gcMillis = after[0] - gc[0];
+		result.gcCount = after[1] - gc[1];
+		result.files = worker.getFilesDone();
+		result.failed = worker.getFilesFailed();
+		
+		return result;
+	}
+	
+	protected AudioTagWorker createWorker(File source, File destination)
+	{
+		String[] names = this.workers.toLowerCase().split("\\+");
+		AudioTagWorker[] operations = new AudioTagWorker[names.length];
+		
+		for (int i = 0; i < names.length; i++)
+		{
+			if (names[i].equals("decommenter"))
+			{
+				operations[i] = new Decommenter(source.getAbsolutePath());
+			}
+			else if (names[i].equals("mover"))
+			{
+				operations[i] = new Mover(source.getAbsolutePath(), destination.getAbsolutePath());
+			}
+			else
+			{
+				throw new IllegalArgumentException("Unknown worker " + names[i]);
+			}
+		}
+		
+		return operations.length == 1 ? operations[0] : new CompositeWorker(source.getAbsolutePath(), operations);
+	}
+	
+	/**
+	 * The memory pools that make up the heap.
+	 */
+	protected static List<MemoryPoolMXBean> heapPools()
+	{
+		List<MemoryPoolMXBean> pools = new ArrayList<MemoryPoolMXBean>();
+		
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+		{
+			if (pool.getType() == MemoryType.HEAP)
+			{
+				pools.add(pool);
+			}
+		}
+		
+		return pools;
+	}
+	
+	/**
+	 * The time spent collecting garbage and the amount of collections, since the JVM
+	 * started.
+	 */
+	protected static long[] gcTotals()
+	{
+		long[] totals = new long[2];
+		
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			totals[0] += Math.max(0, collector.getCollectionTime());
+			totals[1] += Math.max(0, collector.getCollectionCount());
+		}
+		
+		return totals;
+	}
+	
+	public static void main(String[] args) throws IOException
+	{
+		SyntheticLibrary library = new SyntheticLibrary();
+		String workers = null;
+		String dir = null;
+		int runs = 5;
+		int warmup = 2;
+		int threads = 1;
+		int[] stageThreads = null;
+		
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				String arg = args[i];
+				
+				if (arg.equals("--dir"))
+				{
+					dir = value(args, ++i, arg);
+				}
+				else if (arg.equals("--runs"))
+				{
+					runs = Integer.parseInt(value(args, ++i, arg));
+				}
+				else if (arg.equals("--warmup"))
+				{
+					warmup = Integer.parseInt(value(args, ++i, arg));
+				}
+				else if (arg.equals("--threads"))
+				{
+					threads = Integer.parseInt(value(args, ++i, arg));
+				}
+				else if (arg.equals("--pipeline"))
+				{
+					String[] counts = value(args, ++i, arg).split(",");
+					if (counts.length != 3)
+					{
+						throw new IllegalArgumentException("--pipeline takes three thread counts");
+					}
+					
+					stageThreads = new int[3];
+					for (int j = 0; j < 3; j++)
+					{
+						stageThreads[j] = Integer.parseInt(counts[j].trim());
+					}
+				}
+				else if (i + 1 < args.length && library.set(arg, args[i + 1]))
+				{
+					i++;
+				}
+				else if (arg.startsWith("--") || workers != null)
+				{
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+				else
+				{
+					workers = arg;
+				}
+			}
+			
+			if (workers == null)
+			{
+				throw new IllegalArgumentException("No worker given");
+			}
+			
+			for (String name : workers.toLowerCase().split("\\+"))
+			{
+				if (!name.equals("decommenter") && !name.equals("mover"))
+				{
+					throw new IllegalArgumentException("Unknown worker " + name);
+				}
+			}
+			
+			if (runs < 1)
+			{
+				throw new IllegalArgumentException("Need at least one run");
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+		}
+		
+		File base = dir != null ? new File(dir) : Files.createTempDirectory("macro").toFile();
+		MacroBenchmark benchmark = new MacroBenchmark(workers, base, library);
+		benchmark.threads = threads;
+		benchmark.stageThreads = stageThreads;
+		
+		System.out.println(workers + ", " + library.files + " files in " + base.getAbsolutePath()
+			+ ", " + threads + " threads" + (stageThreads != null ? ", pipeline " + Arrays.toString(stageThreads) : ""));
+		
+		try
+		{
+			for (int i = 0; i < warmup; i++)
+			{
+				System.out.println("Warmup " + (i + 1) + ": " + benchmark.run());
+			}
+			
+			List<Result> results = new ArrayList<Result>();
+			for (int i = 0; i < runs; i++)
+			{
+				Result result = benchmark.run();
+				results.add(result);
+				System.out.println("Run " + (i + 1) + ": " + result);
+			}
+			
+			// The median is less thrown off by the odd slow run than the mean
+			Collections.sort(results, new Comparator<Result>()
+			{
+				@Override
+				public int compare(Result a, Result b)
+				{
+					return Long.compare(a.nanos, b.nanos);
+				}
+			});
+			System.out.println("Median: " + results.get(results.size() / 2));
+		}
+		finally
+		{
+			// Only what the benchmark put there, the directory might have been given
+			CullBenchmark.delete(new File(base, "library"));
+			CullBenchmark.delete(new File(base, "out"));
+			if (dir == null)
+			{
+				base.delete();
+			}
+		}
+	}
+	
+	/**
+	 * Gets the value of an option.
+	 */
+	protected static String value(String[] args, int i, String option)
+	{
+		if (i >= args.length)
+		{
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+		
+		return args[i];
+	}
+}
@@ -0,0 +1,249 @@
+package com.blakeharley.fileworker.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Writes a whole library of synthetic MP3s, laid out artist/album/track like a real one,
+ * for running the workers end to end. Everything comes from a seeded random number
+ * generator, so the same settings always give the same library, byte for byte.
+ * 
+ *   java com.blakeharley.fileworker.bench.SyntheticLibrary [options] <directory>
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class SyntheticLibrary
+{
+	protected static final String USAGE =
+		"Usage: SyntheticLibrary [options] <directory>\n" +
+		"\n" +
+		"Options:\n" +
+		"  --files <n>         Tracks to write (default: 1000)\n" +
+		"  --artists <n>       Artists to spread them over (default: 50)\n" +
+		"  --albums <n>        Albums per artist (default: 4)\n" +
+		"  --frames <n>        Audio frames per track, 417 bytes each (default: 100)\n" +
+		"  --padding <n>       Padding after the ID3v2 frames (default: 1024)\n" +
+		"  --artwork <n>       Size of the cover art in every track, 0 for none (default: 0)\n" +
+		"  --comments <r>      Share of tracks with a comment, 0 to 1 (default: 0.5)\n" +
+		"  --comment-size <n>  Length of those comments (default: 32)\n" +
+		"  --seed <n>          Seed for the names and which tracks get comments (default: 1)\n";
+	
+	public int files = 1000;
+	public int artists = 50;
+	
+	/**
+	 * The albums of every artist. The tracks are shared out evenly over all albums.
+	 */
+	public int albums = 4;
+	
+	/**
+	 * The amount of audio frames in every track.
+	 */
+	public int frames = 100;
+	
+	/**
+	 * The amount of padding after the ID3v2 frames.
+	 */
+	public int padding = 1024;
+	
+	/**
+	 * The size of the cover art in every track, or 0 for none.
+	 */
+	public int artworkSize = 0;
+	
+	/**
+	 * The share of tracks with a comment, from 0 to 1.
+	 */
+	public double commentRatio = 0.5;
+	
+	/**
+	 * The length of those comments.
+	 */
+	public int commentSize = 32;
+	
+	/**
+	 * Whether the tracks get an ID3v1 tag as well.
+	 */
+	public boolean id3v1 = true;
+	
+	public long seed = 1;
+	
+	/**
+	 * Writes the library. The directory is created if it isn't there yet.
+	 * 
+	 * @param root Where to write it
+	 * @return The size of all tracks together, in bytes
+	 * @throws IOException
+	 */
+	public long write(File root) throws IOException
+	{
+		if (this.files < 0 || this.artists < 1 || this.albums < 1)
+		{
+			throw new IllegalArgumentException("Need at least one artist and album");
+		}
+		
+		Random random = new Random(this.seed);
+		int albumCount = this.artists * this.albums;
+		int tracksPerAlbum = Math.max(1, (this.files + albumCount - 1) / albumCount);
+		long bytes = 0;
+		
+		SyntheticMp3 mp3 = new SyntheticMp3();
+		mp3.frames = this.frames;
+		mp3.padding = this.padding;
+		mp3.artworkSize = this.artworkSize;
+		mp3.id3v1 = this.id3v1;
+		
+		for (int i = 0; i < this.files; i++)
+		{
+			int album = i / tracksPerAlbum;
+			int track = i % tracksPerAlbum + 1;
+			int artist = album / this.albums;
+			
+			mp3.artist = "Artist " + artist;
+			mp3.albumArtist = mp3.artist;
+			
+			// Every track of an album has the same album name, so the mover keeps them together
+			if (track == 1)
+			{
+				mp3.album = "Album " + album + " " + word(random);
+			}
+			mp3.title = word(random) + " " + word(random) + " " + track;
+			mp3.track = Integer.toString(track);
+			mp3.comment = random.nextDouble() < this.commentRatio ? text(random, this.commentSize) : null;
+			
+			File dir = new File(root, mp3.artist + File.separator + "Album " + album);
+			if (!dir.isDirectory() && !dir.mkdirs())
+			{
+				throw new IOException("Could not create " + dir.getAbsolutePath());
+			}
+			
+			File file = new File(dir, String.format("%02d - %s.mp3", track, mp3.title));
+			mp3.write(file);
+			bytes += file.length();
+		}
+		
+		return bytes;
+	}
+	
+	/**
+	 * A made up word, so names aren't all the same length.
+	 */
+	protected static String word(Random random)
+	{
+		return text(random, 3 + random.nextInt(8));
+	}
+	
+	protected static String text(Random random, int length)
+	{
+		char[] chars = new char[length];
+		for (int i = 0; i < length; i++)
+		{
+			chars[i] = (char) ('a' + random.nextInt(26));
+		}
+		
+		if (length > 0)
+		{
+			chars[0] = Character.toUpperCase(chars[0]);
+		}
+		
+		return new String(chars);
+	}
+	
+	public static void main(String[] args) throws IOException
+	{
+		SyntheticLibrary library = new SyntheticLibrary();
+		String directory = null;
+		
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				String arg = args[i];
+				
+				if (i + 1 < args.length && library.set(arg, args[i + 1]))
+				{
+					i++;
+				}
+				else if (arg.startsWith("--") || directory != null)
+				{
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+				else
+				{
+					directory = arg;
+				}
+			}
+			
+			if (directory == null)
+			{
+				throw new IllegalArgumentException("No directory given");
+			}
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(2);
+		}
+		
+		long start = System.nanoTime();
+		long bytes = library.write(new File(directory));
+		
+		System.out.printf("Wrote %d tracks, %.1f MB, in %.1f s%n", library.files, bytes / 1e6,
+			(System.nanoTime() - start) / 1e9);
+	}
+	
+	/**
+	 * Sets one of the options above from the command line.
+	 * 
+	 * @param option The option, e.g. "--files"
+	 * @param value Its value
+	 * @return False if it isn't an option of the library
+	 */
+	public boolean set(String option, String value)
+	{
+		if (option.equals("--files"))
+		{
+			this.files = Integer.parseInt(value);
+		}
+		else if (option.equals("--artists"))
+		{
+			this.artists = Integer.parseInt(value);
+		}
+		else if (option.equals("--albums"))
+		{
+			this.albums = Integer.parseInt(value);
+		}
+		else if (option.equals("--frames"))
+		{
+			this.frames = Integer.parseInt(value);
+		}
+		else if (option.equals("--padding"))
+		{
+			this.padding = Integer.parseInt(value);
+		}
+		else if (option.equals("--artwork"))
+		{
+			this.artworkSize = Integer.parseInt(value);
+		}
+		else if (option.equals("--comments"))
+		{
+			this.commentRatio = Double.parseDouble(value);
+		}
+		else if (option.equals("--comment-size"))
+		{
+			this.commentSize = Integer.parseInt(value);
+		}
+		else if (option.equals("--seed"))
+		{
+			this.seed = Long.parseLong(value);
+		}
+		else
+		{
+			return false;
+		}
+		
+		return true;
+	}
+}
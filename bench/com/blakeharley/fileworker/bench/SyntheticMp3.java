@@ -0,0 +1,209 @@
+package com.blakeharley.fileworker.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+
+/**
+ * Writes small but valid MP3 files for benchmarking: an ID3v2.3 tag, a run of silent
+ * MPEG-1 Layer III frames and an ID3v1 tag. jaudiotagger reads these just like the
+ * real thing.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class SyntheticMp3
+{
+	/**
+	 * The header of a 128 kbps, 44.1 kHz, stereo MPEG-1 Layer III frame.
+	 */
+	protected static final byte[] FRAME_HEADER = { (byte) 0xff, (byte) 0xfb, (byte) 0x90, 0x00 };
+	
+	/**
+	 * The size of such a frame (144 * 128000 / 44100).
+	 */
+	protected static final int FRAME_SIZE = 417;
+	
+	protected static final Charset LATIN1 = Charset.forName("ISO-8859-1");
+	
+	public String title = "The Song Of A Thousand Years";
+	public String artist = "Some Artist";
+	public String albumArtist = "Some Artist";
+	public String album = "A Tale Of Two Cities [Remastered]";
+	public String track = "1";
+	public String disc = "1";
+	
+	/**
+	 * The comment, or null for no COMM frame.
+	 */
+	public String comment = "Ripped by somebody";
+	
+	/**
+	 * The size of the embedded cover art, or 0 for no APIC frame.
+	 */
+	public int artworkSize = 0;
+	
+	/**
+	 * The amount of padding after the ID3v2 frames.
+	 */
+	public int padding = 1024;
+	
+	/**
+	 * The amount of audio frames.
+	 */
+	public int frames = 100;
+	
+	/**
+	 * Whether to add an ID3v1 tag at the end.
+	 */
+	public boolean id3v1 = true;
+	
+	/**
+	 * Writes the file.
+	 * 
+	 * @param file Where to write it
+	 * @throws IOException
+	 */
+	public void write(File file) throws IOException
+	{
+		FileOutputStream out = new FileOutputStream(file);
+		
+		try
+		{
+			out.write(this.renderId3v2());
+			
+			byte[] frame = new byte[FRAME_SIZE];
+			System.arraycopy(FRAME_HEADER, 0, frame, 0, FRAME_HEADER.length);
+			for (int i = 0; i < this.frames; i++)
+			{
+				out.write(frame);
+			}
+			
+			if (this.id3v1)
+			{
+				out.write(this.renderId3v1());
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+	
+	/**
+	 * The size the file will have once written.
+	 * 
+	 * @return The size in bytes
+	 */
+	public long size()
+	{
+		return this.renderId3v2().length + (long) this.frames * FRAME_SIZE + (this.id3v1 ? 128 : 0);
+	}
+	
+	/**
+	 * Renders the ID3v2.3 tag, header and padding included.
+	 */
+	protected byte[] renderId3v2()
+	{
+		ByteArrayOutputStream body = new ByteArrayOutputStream();
+		
+		textFrame(body, "TIT2", this.title);
+		textFrame(body, "TPE1", this.artist);
+		textFrame(body, "TPE2", this.albumArtist);
+		textFrame(body, "TALB", this.album);
+		textFrame(body, "TRCK", this.track);
+		textFrame(body, "TPOS", this.disc);
+		
+		if (this.comment != null)
+		{
+			// Encoding, language, empty description, text
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			data.write(0);
+			data.write('e');
+			data.write('n');
+			data.write('g');
+			data.write(0);
+			write(data, this.comment.getBytes(LATIN1));
+			frame(body, "COMM", data.toByteArray());
+		}
+		
+		if (this.artworkSize > 0)
+		{
+			// Encoding, MIME type, picture type (front cover), empty description, image
+			ByteArrayOutputStream data = new ByteArrayOutputStream();
+			data.write(0);
+			write(data, "image/jpeg".getBytes(LATIN1));
+			data.write(0);
+			data.write(3);
+			data.write(0);
+			
+			byte[] image = new byte[this.artworkSize];
+			for (int i = 0; i < image.length; i++)
+			{
+				image[i] = (byte) (i * 31);
+			}
+			write(data, image);
+			
+			frame(body, "APIC", data.toByteArray());
+		}
+		
+		int size = body.size() + this.padding;
+		ByteArrayOutputStream tag = new ByteArrayOutputStream();
+		write(tag, new byte[] { 'I', 'D', '3', 3, 0, 0,
+			(byte) ((size >> 21) & 0x7f), (byte) ((size >> 14) & 0x7f), (byte) ((size >> 7) & 0x7f), (byte) (size & 0x7f) });
+		write(tag, body.toByteArray());
+		write(tag, new byte[this.padding]);
+		
+		return tag.toByteArray();
+	}
+	
+	/**
+	 * Renders the 128 byte ID3v1.1 tag.
+	 */
+	protected byte[] renderId3v1()
+	{
+		byte[] tag = new byte[128];
+		tag[0] = 'T';
+		tag[1] = 'A';
+		tag[2] = 'G';
+		
+		copy(this.title, tag, 3, 30);
+		copy(this.artist, tag, 33, 30);
+		copy(this.album, tag, 63, 30);
+		copy(this.comment == null ? "" : this.comment, tag, 97, 28);
+		tag[126] = (byte) Integer.parseInt(this.track);
+		tag[127] = (byte) 255;
+		
+		return tag;
+	}
+	
+	protected static void textFrame(ByteArrayOutputStream out, String id, String text)
+	{
+		byte[] bytes = text.getBytes(LATIN1);
+		byte[] data = new byte[bytes.length + 1];
+		System.arraycopy(bytes, 0, data, 1, bytes.length);
+		
+		frame(out, id, data);
+	}
+	
+	protected static void frame(ByteArrayOutputStream out, String id, byte[] data)
+	{
+		int size = data.length;
+		
+		write(out, id.getBytes(LATIN1));
+		write(out, new byte[] { (byte) (size >> 24), (byte) (size >> 16), (byte) (size >> 8), (byte) size, 0, 0 });
+		write(out, data);
+	}
+	
+	protected static void copy(String text, byte[] into, int offset, int length)
+	{
+		byte[] bytes = text.getBytes(LATIN1);
+		System.arraycopy(bytes, 0, into, offset, Math.min(bytes.length, length));
+	}
+	
+	protected static void write(ByteArrayOutputStream out, byte[] bytes)
+	{
+		out.write(bytes, 0, bytes.length);
+	}
+}
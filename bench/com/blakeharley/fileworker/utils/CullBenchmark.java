@@ -0,0 +1,134 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Scans a generated library laid out like a real one: artist/album/track, with some
+ * cover art and playlists mixed in that the scan has to skip.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class CullBenchmark
+{
+	@Param({ "1", "4" })
+	public int parallelism;
+	
+	@Param({ "50" })
+	public int artists;
+	
+	@Param({ "8" })
+	public int albums;
+	
+	@Param({ "12" })
+	public int tracks;
+	
+	protected File root;
+	
+	@Setup(Level.Trial)
+	public void createTree() throws IOException
+	{
+		this.root = createLibrary(this.artists, this.albums, this.tracks);
+	}
+	
+	@TearDown(Level.Trial)
+	public void deleteTree()
+	{
+		delete(this.root);
+	}
+	
+	@Benchmark
+	public FileSet claim()
+	{
+		Cull cull = new Cull(this.root);
+		cull.setParallelism(this.parallelism);
+		
+		return cull.claim();
+	}
+	
+	@Benchmark
+	public int stream()
+	{
+		Cull cull = new Cull(this.root);
+		cull.setParallelism(this.parallelism);
+		
+		int count = 0;
+		for (File file : cull.stream())
+		{
+			count += file.getName().length();
+		}
+		
+		return count;
+	}
+	
+	/**
+	 * Creates an empty library in a temporary directory. The files are empty, the scan
+	 * doesn't care.
+	 * 
+	 * @return The library directory
+	 * @throws IOException
+	 */
+	public static File createLibrary(int artists, int albums, int tracks) throws IOException
+	{
+		File root = Files.createTempDirectory("cull").toFile();
+		
+		for (int artist = 0; artist < artists; artist++)
+		{
+			for (int album = 0; album < albums; album++)
+			{
+				File dir = new File(root, "Artist " + artist + File.separator + "Album " + album);
+				dir.mkdirs();
+				
+				new File(dir, "folder.jpg").createNewFile();
+				new File(dir, "playlist.m3u").createNewFile();
+				
+				for (int track = 0; track < tracks; track++)
+				{
+					new File(dir, "1." + track + " - Track " + track + ".mp3").createNewFile();
+				}
+			}
+		}
+		
+		return root;
+	}
+	
+	/**
+	 * Deletes a directory tree.
+	 */
+	public static void delete(File file)
+	{
+		File[] children = file.listFiles();
+		
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				delete(child);
+			}
+		}
+		
+		file.delete();
+	}
+}
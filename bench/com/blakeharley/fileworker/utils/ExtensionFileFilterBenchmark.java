@@ -0,0 +1,84 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The extension check that runs for every directory entry, both the name-only check
+ * used by Cull and the FileFilter version that has to stat the file first.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class ExtensionFileFilterBenchmark
+{
+	protected static final int ENTRIES = 14;
+	
+	protected ExtensionFileFilter filter = new ExtensionFileFilter(new String[] { "mp3" });
+	
+	protected File root;
+	
+	protected File[] files;
+	
+	protected String[] names;
+	
+	@Setup(Level.Trial)
+	public void createTree() throws IOException
+	{
+		this.root = CullBenchmark.createLibrary(1, 1, ENTRIES - 2);
+		this.files = new File(this.root, "Artist 0" + File.separator + "Album 0").listFiles();
+		
+		this.names = new String[this.files.length];
+		for (int i = 0; i < this.files.length; i++)
+		{
+			this.names[i] = this.files[i].getName();
+		}
+	}
+	
+	@TearDown(Level.Trial)
+	public void deleteTree()
+	{
+		CullBenchmark.delete(this.root);
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(ENTRIES)
+	public void acceptName(Blackhole hole)
+	{
+		for (String name : this.names)
+		{
+			hole.consume(this.filter.accept(name));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(ENTRIES)
+	public void acceptFile(Blackhole hole)
+	{
+		for (File file : this.files)
+		{
+			hole.consume(this.filter.accept(file));
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how much heap a FileSet takes against an ArrayList of the same files. The
+ * files are only names, laid out like a library: artist/album/track, a few albums per
+ * artist and a handful of tracks per album. Nothing is written to disk.
+ * 
+ *   java -Xmx2g com.blakeharley.fileworker.utils.FileSetFootprint [tracks] [tracks per album]
+ * 
+ * The heap is measured after collecting garbage a few times, so give it some room and
+ * don't run anything else in the same JVM.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class FileSetFootprint
+{
+	protected static final String ROOT = "/home/blake/Music/Library";
+	
+	protected static final int ALBUMS_PER_ARTIST = 4;
+	
+	public static void main(String[] args)
+	{
+		int tracks = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+		int perAlbum = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+		
+		long before = usedHeap();
+		FileSet set = fileSet(tracks, perAlbum);
+		long setBytes = usedHeap() - before;
+		
+		before = usedHeap();
+		List<File> list = arrayList(tracks, perAlbum);
+		long listBytes = usedHeap() - before;
+		
+		System.out.printf("%d tracks, %d to an album, %s%n", set.size(), perAlbum, System.getProperty("java.version"));
+		System.out.printf("ArrayList<File>: %.1f MB, %.0f bytes a track%n", listBytes / 1e6, (double) listBytes / list.size());
+		System.out.printf("FileSet:         %.1f MB, %.0f bytes a track, %d directories%n", setBytes / 1e6,
+			(double) setBytes / set.size(), set.getDirectoryCount());
+		System.out.printf("%.1f times smaller%n", (double) listBytes / setBytes);
+		
+		// Keep both alive until they've been measured
+		if (set.size() != list.size())
+		{
+			throw new IllegalStateException("The lists don't match");
+		}
+	}
+	
+	/**
+	 * The library as a FileSet, added the way Cull does it.
+	 */
+	protected static FileSet fileSet(int tracks, int perAlbum)
+	{
+		Random random = new Random(1);
+		FileSet set = new FileSet();
+		int root = set.addDirectory(new File(ROOT));
+		int artist = -1;
+		int album = -1;
+		
+		for (int i = 0; i < tracks; i++)
+		{
+			if (i % (perAlbum * ALBUMS_PER_ARTIST) == 0)
+			{
+				artist = set.addDirectory(root, artistName(random));
+			}
+			if (i % perAlbum == 0)
+			{
+				album = set.addDirectory(artist, albumName(random));
+			}
+			
+			set.addFile(album, trackName(random, i % perAlbum + 1));
+		}
+		
+		set.trim();
+		
+		return set;
+	}
+	
+	/**
+	 * The same library as an ArrayList.
+	 */
+	protected static List<File> arrayList(int tracks, int perAlbum)
+	{
+		Random random = new Random(1);
+		ArrayList<File> list = new ArrayList<File>();
+		File artist = null;
+		File album = null;
+		
+		for (int i = 0; i < tracks; i++)
+		{
+			if (i % (perAlbum * ALBUMS_PER_ARTIST) == 0)
+			{
+				artist = new File(ROOT, artistName(random));
+			}
+			if (i % perAlbum == 0)
+			{
+				album = new File(artist, albumName(random));
+			}
+			
+			list.add(new File(album, trackName(random, i % perAlbum + 1)));
+		}
+		
+		list.trimToSize();
+		
+		return list;
+	}
+	
+	protected static String artistName(Random random)
+	{
+		return word(random) + " " + word(random);
+	}
+	
+	protected static String albumName(Random random)
+	{
+		return word(random) + " " + word(random) + " " + word(random);
+	}
+	
+	protected static String trackName(Random random, int track)
+	{
+		return String.format("1.%02d - %s %s %s.mp3", track, word(random), word(random), word(random));
+	}
+	
+	/**
+	 * A made up word, so names aren't all the same length.
+	 */
+	protected static String word(Random random)
+	{
+		char[] chars = new char[3 + random.nextInt(6)];
+		for (int i = 0; i < chars.length; i++)
+		{
+			chars[i] = (char) ('a' + random.nextInt(26));
+		}
+		chars[0] = Character.toUpperCase(chars[0]);
+		
+		return new String(chars);
+	}
+	
+	protected static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		
+		for (int i = 0; i < 4; i++)
+		{
+			System.gc();
+		}
+		
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+}
@@ -0,0 +1,69 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.AudioFileIO;
+import org.jaudiotagger.tag.FieldKey;
+import org.jaudiotagger.tag.Tag;
+
+/**
+ * Makes sure the quick scan never rules out a comment that the real parser finds. The
+ * decommenter skips files the scan says have no comment, so a wrong no means a comment
+ * is silently left behind.
+ * 
+ * The files in bench/data are odd tags that once fooled the scan. Point it at a music
+ * library to check that too:
+ * 
+ *   java -cp target/benchmarks.jar com.blakeharley.fileworker.utils.Id3ScanCheck [files or directories]
+ * 
+ * Exits with 1 if any file was missed.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class Id3ScanCheck
+{
+	public static void main(String[] args) throws Exception
+	{
+		java.util.logging.Logger.getLogger("org.jaudiotagger").setLevel(Level.OFF);
+		
+		List<File> files = new ArrayList<File>();
+		for (String arg : args.length > 0 ? args : new String[] { "bench/data" })
+		{
+			File file = new File(arg);
+			if (file.isDirectory())
+			{
+				files.addAll(new Cull(arg).claim());
+			}
+			else
+			{
+				files.add(file);
+			}
+		}
+		
+		int missed = 0;
+		for (File file : files)
+		{
+			Id3Scan scan = Id3Scan.read(file);
+			if (scan.mayHaveFrame("COMM", "COM"))
+			{
+				continue;
+			}
+			
+			AudioFile audioFile = AudioFileIO.read(file);
+			Tag tag = audioFile.getTag();
+			
+			if (tag != null && tag.getFirst(FieldKey.COMMENT).length() > 0)
+			{
+				System.out.println("Missed a comment: " + file.getPath());
+				missed++;
+			}
+		}
+		
+		System.out.println("Checked " + files.size() + " files, missed " + missed + " comments.");
+		System.exit(missed > 0 ? 1 : 0);
+	}
+}
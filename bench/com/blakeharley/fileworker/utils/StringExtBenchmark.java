@@ -0,0 +1,88 @@
+package com.blakeharley.fileworker.utils;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The string clean up that runs for every tag field of every file.
+ * 
+ * The same few inputs go in every time, so going through StringExt would only time a
+ * lookup in its memo after the first call. The clean up itself is timed by calling it
+ * directly, and the memoized path on its own, to see what a repeated name costs.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class StringExtBenchmark
+{
+	protected static final int INPUTS = 6;
+	
+	protected String[] inputs = {
+		"The Dark Side Of The Moon",
+		"A Night At The Opera [2011 Remaster]",
+		"Songs For The Deaf",
+		"In The Court Of The Crimson King: An Observation By King Crimson",
+		"Sigur R\u00f3s",
+		"What's The Story? (Morning Glory)",
+	};
+	
+	@Benchmark
+	@OperationsPerInvocation(INPUTS)
+	public void lowerArticles(Blackhole hole)
+	{
+		for (String input : this.inputs)
+		{
+			hole.consume(StringExt.lowerArticles(input));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(INPUTS)
+	public void toFileName(Blackhole hole)
+	{
+		for (String input : this.inputs)
+		{
+			hole.consume(StringExt.toFileName(input));
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(INPUTS)
+	public void articlesToLowerMemoized(Blackhole hole)
+	{
+		for (String input : this.inputs)
+		{
+			StringExt str = new StringExt(input);
+			str.articlesToLower();
+			hole.consume(str.toString());
+		}
+	}
+	
+	@Benchmark
+	@OperationsPerInvocation(INPUTS)
+	public void prepareFileNameMemoized(Blackhole hole)
+	{
+		for (String input : this.inputs)
+		{
+			StringExt str = new StringExt(input);
+			str.prepareFileName();
+			hole.consume(str.toString());
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package com.blakeharley.fileworker.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.tag.FieldKey;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blakeharley.fileworker.bench.SyntheticMp3;
+import com.blakeharley.fileworker.utils.CullBenchmark;
+import com.blakeharley.fileworker.worker.decommenter.Decommenter;
+
+/**
+ * Reading and writing tags on a synthetic MP3, with and without cover art.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class AudioTagWorkerBenchmark
+{
+	@Param({ "0", "65536" })
+	public int artworkSize;
+	
+	protected File dir;
+	
+	protected File original;
+	
+	protected File file;
+	
+	protected AudioTagWorker worker;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws IOException
+	{
+		this.dir = Files.createTempDirectory("tags").toFile();
+		this.original = new File(this.dir, "original.mp3");
+		this.file = new File(this.dir, "track.mp3");
+		
+		SyntheticMp3 mp3 = new SyntheticMp3();
+		mp3.artworkSize = this.artworkSize;
+		mp3.frames = 2000;
+		mp3.write(this.original);
+		
+		this.worker = new Decommenter(this.dir.getAbsolutePath());
+	}
+	
+	@Setup(Level.Invocation)
+	public void restore() throws IOException
+	{
+		Files.copy(this.original.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown()
+	{
+		CullBenchmark.delete(this.dir);
+	}
+	
+	@Benchmark
+	public AudioFile read() throws Exception
+	{
+		return this.worker.getAudioFile(this.file);
+	}
+	
+	@Benchmark
+	public AudioFile readAndCommit() throws Exception
+	{
+		AudioFile audioFile = this.worker.getAudioFile(this.file);
+		audioFile.getTag().deleteField(FieldKey.COMMENT);
+		audioFile.commit();
+		
+		return audioFile;
+	}
+	
+	@Benchmark
+	public AudioFile readAndPatch() throws Exception
+	{
+		AudioFile audioFile = this.worker.getAudioFile(this.file);
+		audioFile.getTag().deleteField(FieldKey.COMMENT);
+		this.worker.commit(audioFile);
+		
+		return audioFile;
+	}
+}
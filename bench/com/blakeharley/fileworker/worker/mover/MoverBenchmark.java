@@ -0,0 +1,68 @@
+package com.blakeharley.fileworker.worker.mover;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.jaudiotagger.audio.AudioFile;
+import org.jaudiotagger.audio.AudioFileIO;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.blakeharley.fileworker.bench.SyntheticMp3;
+import com.blakeharley.fileworker.utils.CullBenchmark;
+
+/**
+ * Working out the new home of a file from its tag.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(1)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class MoverBenchmark
+{
+	protected File dir;
+	
+	protected Mover mover;
+	
+	protected AudioFile audioFile;
+	
+	@Setup(Level.Trial)
+	public void setUp() throws Exception
+	{
+		this.dir = Files.createTempDirectory("mover").toFile();
+		
+		File file = new File(this.dir, "track.mp3");
+		new SyntheticMp3().write(file);
+		
+		this.mover = new Mover(this.dir.getAbsolutePath(), new File(this.dir, "out").getAbsolutePath());
+		this.audioFile = AudioFileIO.read(file);
+	}
+	
+	@TearDown(Level.Trial)
+	public void tearDown() throws IOException
+	{
+		CullBenchmark.delete(this.dir);
+	}
+	
+	@Benchmark
+	public String generateFileName()
+	{
+		return this.mover.generateFileName(this.audioFile);
+	}
+}
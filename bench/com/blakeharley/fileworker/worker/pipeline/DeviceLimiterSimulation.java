@@ -0,0 +1,164 @@
+package com.blakeharley.fileworker.worker.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the limit of a DeviceLimiter.Device against made up disks, to see where it ends
+ * up. Nothing is written; every write just takes as long as the disk would need for it
+ * with that many files in flight. Plenty of threads keep trying to write, so the limit
+ * is the only thing holding them back.
+ * 
+ *   java -cp target/benchmarks.jar com.blakeharley.fileworker.worker.pipeline.DeviceLimiterSimulation [seconds]
+ * 
+ * Two disks are run side by side:
+ * 
+ *   spinning  100MB/s with one file at a time, a bit slower with every file added
+ *   ssd       40MB/s a file, adding up to eight files at once and flat after that
+ * 
+ * The limit is sampled every window. The first half of the run is the limit finding its
+ * way, so only the second half is reported.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class DeviceLimiterSimulation
+{
+	protected static final long FILE_BYTES = 1000000;
+	
+	protected static final int THREADS = 32;
+	
+	/**
+	 * A made up disk: how many bytes a second it gets through with a number of files
+	 * written at the same time.
+	 */
+	protected abstract static class Disk
+	{
+		final String name;
+		final DeviceLimiter.Device device;
+		final AtomicInteger inFlight = new AtomicInteger();
+		final List<Integer> limits = new ArrayList<Integer>();
+		
+		Disk(String name)
+		{
+			this.name = name;
+			this.device = new DeviceLimiter.Device(name);
+		}
+		
+		abstract double throughput(int files);
+		
+		/**
+		 * Writes a file, sharing the disk with the others in flight.
+		 */
+		void write() throws InterruptedException
+		{
+			this.device.acquire();
+			
+			try
+			{
+				int files = this.inFlight.incrementAndGet();
+				double seconds = FILE_BYTES * files / this.throughput(files);
+				
+				TimeUnit.MICROSECONDS.sleep((long) (seconds * 1e6));
+			}
+			finally
+			{
+				this.inFlight.decrementAndGet();
+				this.device.release(FILE_BYTES);
+			}
+		}
+	}
+	
+	public static void main(String[] args) throws InterruptedException
+	{
+		long seconds = args.length > 0 ? Long.parseLong(args[0]) : 40;
+		
+		final List<Disk> disks = new ArrayList<Disk>();
+		disks.add(new Disk("spinning")
+		{
+			@Override
+			double throughput(int files)
+			{
+				return 100e6 / (1 + 0.3 * (files - 1));
+			}
+		});
+		disks.add(new Disk("ssd")
+		{
+			@Override
+			double throughput(int files)
+			{
+				return 40e6 * Math.min(files, 8);
+			}
+		});
+		
+		List<Thread> threads = new ArrayList<Thread>();
+		for (final Disk disk : disks)
+		{
+			for (int i = 0; i < THREADS; i++)
+			{
+				Thread thread = new Thread(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							while (true)
+							{
+								disk.write();
+							}
+						}
+						catch (InterruptedException e)
+						{
+							// Done
+						}
+					}
+				});
+				thread.start();
+				threads.add(thread);
+			}
+		}
+		
+		long window = TimeUnit.NANOSECONDS.toMillis(DeviceLimiter.WINDOW_NANOS);
+		long end = System.currentTimeMillis() + seconds * 1000;
+		
+		while (System.currentTimeMillis() < end)
+		{
+			Thread.sleep(window);
+			
+			for (Disk disk : disks)
+			{
+				disk.limits.add(disk.device.getLimit());
+			}
+		}
+		
+		for (Thread thread : threads)
+		{
+			thread.interrupt();
+		}
+		for (Thread thread : threads)
+		{
+			thread.join();
+		}
+		
+		for (Disk disk : disks)
+		{
+			List<Integer> settled = disk.limits.subList(disk.limits.size() / 2, disk.limits.size());
+			int min = Integer.MAX_VALUE;
+			int max = 0;
+			long sum = 0;
+			
+			for (int limit : settled)
+			{
+				min = Math.min(min, limit);
+				max = Math.max(max, limit);
+				sum += limit;
+			}
+			
+			System.out.printf("%-8s limit %d to %d, %.1f on average, over the last %d windows%n", disk.name, min, max,
+				(double) sum / settled.size(), settled.size());
+			System.out.println("         " + disk.limits);
+		}
+	}
+}
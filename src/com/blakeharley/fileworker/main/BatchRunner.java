@@ -0,0 +1,604 @@
+package com.blakeharley.fileworker.main;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import com.blakeharley.fileworker.utils.HashCache;
+import com.blakeharley.fileworker.utils.Journal;
+import com.blakeharley.fileworker.utils.Logger;
+import com.blakeharley.fileworker.utils.Manifest;
+import com.blakeharley.fileworker.utils.RollingFileLogSink;
+import com.blakeharley.fileworker.utils.TagIndex;
+import com.blakeharley.fileworker.worker.AudioTagWorker;
+import com.blakeharley.fileworker.worker.CompositeWorker;
+import com.blakeharley.fileworker.worker.Metrics;
+import com.blakeharley.fileworker.worker.MetricsExporter;
+import com.blakeharley.fileworker.worker.Watcher;
+import com.blakeharley.fileworker.worker.decommenter.Decommenter;
+import com.blakeharley.fileworker.worker.indexer.Indexer;
+import com.blakeharley.fileworker.worker.mover.FileTransfer;
+import com.blakeharley.fileworker.worker.mover.MovePlan;
+import com.blakeharley.fileworker.worker.mover.Mover;
+import com.blakeharley.fileworker.worker.pipeline.DeviceLimiter;
+
+
+/**
+ * Batch Runner
+ * 
+ * Runs a worker without a window, for servers and cron jobs. The log goes to stderr and
+ * stdout gets one JSON object per line: progress every so often while the worker runs,
+ * and a summary once it's done. The exit code tells how it went.
+ * 
+ *   java com.blakeharley.fileworker.main.BatchRunner [options] decommenter <library>
+ *   java com.blakeharley.fileworker.main.BatchRunner [options] mover <library> <destination>
+ *   java com.blakeharley.fileworker.main.BatchRunner [options] mover+decommenter <library> <destination>
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class BatchRunner
+{
+	/**
+	 * Every file was worked on.
+	 */
+	public static final int EXIT_OK = 0;
+	
+	/**
+	 * The worker finished, but some files couldn't be worked on.
+	 */
+	public static final int EXIT_FILES_FAILED = 1;
+	
+	/**
+	 * The arguments didn't make sense.
+	 */
+	public static final int EXIT_USAGE = 2;
+	
+	/**
+	 * The worker itself fell over.
+	 */
+	public static final int EXIT_ERROR = 3;
+	
+	protected static final String USAGE =
+		"Usage: BatchRunner [options] decommenter <library>\n" +
+		"       BatchRunner [options] indexer <library>\n" +
+		"       BatchRunner [options] mover <library> <destination>\n" +
+		"\n" +
+		"Workers can be joined with + to run them in a single pass, e.g. mover+decommenter.\n" +
+		"\n" +
+		"Options:\n" +
+		"  --threads <n>          Files worked on at the same time (default: one per processor)\n" +
+		"  --virtual-threads      Give every file its own virtual thread, where available\n" +
+		"  --pipeline <r,t,w>     Read, transform and write in overlapping stages with this many\n" +
+		"                         threads each (0 means --threads)\n" +
+		"  --adaptive-io          Work out how many files to write to each disk at the same time,\n" +
+		"                         instead of writing from every thread at once\n" +
+		"  --manifest             Skip files that haven't changed since the last run\n" +
+		"  --journal              Keep track of finished files as they go, so a run that dies can\n" +
+		"                         pick up where it left off\n" +
+		"  --transfer <mode>      How the mover gets files to their new home: copy, link or move\n" +
+		"  --duplicates <mode>    What the mover does with tracks whose audio is the same as another\n" +
+		"                         track's: keep (default), skip or link\n" +
+		"  --save-plan <path>     Only work out where the mover would put every file, and save that\n" +
+		"  --use-index            Plan from the tag index where it's up to date (run the indexer first)\n" +
+		"  --plan <path>          Have the mover follow a saved plan\n" +
+		"  --watch                Keep running afterwards, working on new and changed files as\n" +
+		"                         they show up\n" +
+		"  --interval <ms>        How often progress is reported (default: 1000)\n" +
+		"  --log-file <path>      Also write the log to a file, rolled over every 10MB\n" +
+		"  --metrics-file <path>  Append the metrics to a file as JSON lines\n";
+	
+	/**
+	 * The worker being run.
+	 */
+	protected AudioTagWorker worker;
+	
+	/**
+	 * Where the progress lines go.
+	 */
+	protected PrintStream out;
+	
+	/**
+	 * How often progress is reported, in milliseconds.
+	 */
+	protected long interval = 1000;
+	
+	/**
+	 * Creates a runner for the given worker.
+	 * 
+	 * @param worker The worker to run
+	 * @param out Where the progress lines go
+	 */
+	public BatchRunner(AudioTagWorker worker, PrintStream out)
+	{
+		this.worker = worker;
+		this.out = out;
+	}
+	
+	/**
+	 * Sets how often progress is reported.
+	 * 
+	 * @param interval The interval in milliseconds
+	 */
+	public void setInterval(long interval)
+	{
+		if (interval < 1)
+		{
+			throw new IllegalArgumentException("Interval must be at least one millisecond");
+		}
+		
+		this.interval = interval;
+	}
+	
+	/**
+	 * Runs the worker to the end, reporting progress along the way.
+	 * 
+	 * @return The exit code
+	 */
+	public int run()
+	{
+		Metrics metrics = this.worker.getMetrics();
+		metrics.setInterval(this.interval);
+		
+		// The metrics thread is a daemon, so it never keeps the JVM alive on its own
+		Metrics.Listener listener = new Metrics.Listener()
+		{
+			@Override
+			public void metricsUpdated(Metrics.Snapshot snapshot)
+			{
+				if (!snapshot.finished)
+				{
+					report("progress", snapshot, null, null);
+				}
+			}
+		};
+		metrics.addListener(listener);
+		
+		int code;
+		String error = null;
+		
+		try
+		{
+			this.worker.doWork();
+			code = this.worker.getFilesFailed() > 0 ? EXIT_FILES_FAILED : EXIT_OK;
+		}
+		catch (RuntimeException e)
+		{
+			code = EXIT_ERROR;
+			error = e.toString();
+		}
+		finally
+		{
+			metrics.removeListener(listener);
+		}
+		
+		this.report("done", metrics.snapshot(true), code, error);
+		
+		return code;
+	}
+	
+	/**
+	 * Keeps working on new and changed files as they show up, until the watcher is
+	 * stopped. Every batch reports its progress like a run does, and ends with a "batch"
+	 * line instead of a "done" one.
+	 * 
+	 * @throws IOException If the library can't be watched
+	 */
+	public void watch() throws IOException
+	{
+		Metrics metrics = this.worker.getMetrics();
+		
+		Metrics.Listener listener = new Metrics.Listener()
+		{
+			@Override
+			public void metricsUpdated(Metrics.Snapshot snapshot)
+			{
+				report(snapshot.finished ? "batch" : "progress", snapshot, null, null);
+			}
+		};
+		metrics.addListener(listener);
+		
+		try
+		{
+			new Watcher(this.worker).watch();
+		}
+		finally
+		{
+			metrics.removeListener(listener);
+		}
+	}
+	
+	/**
+	 * Writes a single line of JSON describing where the worker is at.
+	 * 
+	 * @param event The kind of line, "progress", "batch" or "done"
+	 * @param snapshot The worker's metrics
+	 * @param exitCode The exit code once the worker is done, or null
+	 * @param error What went wrong if the worker fell over, or null
+	 */
+	protected synchronized void report(String event, Metrics.Snapshot snapshot, Integer exitCode, String error)
+	{
+		StringBuilder line = new StringBuilder();
+		line.append("{\"event\":").append(quote(event));
+		
+		String status = this.worker.getProgressString();
+		if (status != null)
+		{
+			line.append(",\"status\":").append(quote(status));
+		}
+		
+		line.append(',').append(snapshot.toJsonMembers());
+		line.append(",\"failed\":").append(this.worker.getFilesFailed());
+		line.append(",\"warnings\":").append(this.worker.getWarningCount());
+		
+		if (exitCode != null)
+		{
+			line.append(",\"exitCode\":").append(exitCode);
+		}
+		
+		if (error != null)
+		{
+			line.append(",\"error\":").append(quote(error));
+		}
+		
+		line.append('}');
+		this.out.println(line);
+		this.out.flush();
+	}
+	
+	/**
+	 * Turns a string into a JSON string literal.
+	 * 
+	 * @param str The string
+	 * @return The quoted and escaped string
+	 */
+	protected static String quote(String str)
+	{
+		StringBuilder quoted = new StringBuilder(str.length() + 2);
+		quoted.append('"');
+		
+		for (int i = 0; i < str.length(); i++)
+		{
+			char c = str.charAt(i);
+			
+			switch (c)
+			{
+				case '"':
+					quoted.append("\\\"");
+					break;
+				case '\\':
+					quoted.append("\\\\");
+					break;
+				case '\n':
+					quoted.append("\\n");
+					break;
+				case '\r':
+					quoted.append("\\r");
+					break;
+				case '\t':
+					quoted.append("\\t");
+					break;
+				default:
+					if (c < 0x20)
+					{
+						quoted.append(String.format("\\u%04x", (int) c));
+					}
+					else
+					{
+						quoted.append(c);
+					}
+			}
+		}
+		
+		return quoted.append('"').toString();
+	}
+	
+	/**
+	 * @param args
+	 */
+	public static void main(String[] args)
+	{
+		System.setProperty("java.awt.headless", "true");
+		
+		int threads = Runtime.getRuntime().availableProcessors();
+		boolean virtualThreads = false;
+		boolean adaptiveIo = false;
+		int[] stageThreads = null;
+		boolean useManifest = false;
+		boolean useJournal = false;
+		boolean watch = false;
+		FileTransfer.Mode mode = null;
+		Mover.DuplicateMode duplicates = null;
+		long interval = 1000;
+		String logFile = null;
+		String metricsFile = null;
+		String savePlan = null;
+		String loadPlan = null;
+		boolean useIndex = false;
+		
+		String[] positional = new String[args.length];
+		int count = 0;
+		
+		try
+		{
+			for (int i = 0; i < args.length; i++)
+			{
+				String arg = args[i];
+				
+				if (arg.equals("--threads"))
+				{
+					threads = Integer.parseInt(value(args, ++i, arg));
+				}
+				else if (arg.equals("--virtual-threads"))
+				{
+					virtualThreads = true;
+				}
+				else if (arg.equals("--pipeline"))
+				{
+					String[] counts = value(args, ++i, arg).split(",");
+					if (counts.length != 3)
+					{
+						throw new IllegalArgumentException("--pipeline takes three thread counts");
+					}
+					
+					stageThreads = new int[3];
+					for (int j = 0; j < 3; j++)
+					{
+						stageThreads[j] = Integer.parseInt(counts[j].trim());
+					}
+				}
+				else if (arg.equals("--adaptive-io"))
+				{
+					adaptiveIo = true;
+				}
+				else if (arg.equals("--manifest"))
+				{
+					useManifest = true;
+				}
+				else if (arg.equals("--journal"))
+				{
+					useJournal = true;
+				}
+				else if (arg.equals("--transfer"))
+				{
+					mode = FileTransfer.Mode.valueOf(value(args, ++i, arg).toUpperCase());
+				}
+				else if (arg.equals("--duplicates"))
+				{
+					duplicates = Mover.DuplicateMode.valueOf(value(args, ++i, arg).toUpperCase());
+				}
+				else if (arg.equals("--save-plan"))
+				{
+					savePlan = value(args, ++i, arg);
+				}
+				else if (arg.equals("--use-index"))
+				{
+					useIndex = true;
+				}
+				else if (arg.equals("--plan"))
+				{
+					loadPlan = value(args, ++i, arg);
+				}
+				else if (arg.equals("--watch"))
+				{
+					watch = true;
+				}
+				else if (arg.equals("--interval"))
+				{
+					interval = Long.parseLong(value(args, ++i, arg));
+				}
+				else if (arg.equals("--log-file"))
+				{
+					logFile = value(args, ++i, arg);
+				}
+				else if (arg.equals("--metrics-file"))
+				{
+					metricsFile = value(args, ++i, arg);
+				}
+				else if (arg.startsWith("--"))
+				{
+					throw new IllegalArgumentException("Unknown option " + arg);
+				}
+				else
+				{
+					positional[count++] = arg;
+				}
+			}
+			
+			if (count == 0)
+			{
+				throw new IllegalArgumentException("No worker given");
+			}
+			
+			// Several workers joined with + run in a single pass
+			String[] names = positional[0].toLowerCase().split("\\+");
+			boolean moving = Arrays.asList(names).contains("mover");
+			
+			if (count != (moving ? 3 : 2))
+			{
+				throw new IllegalArgumentException("Wrong arguments for " + positional[0]);
+			}
+			
+			AudioTagWorker[] operations = new AudioTagWorker[names.length];
+			for (int i = 0; i < names.length; i++)
+			{
+				if (names[i].equals("decommenter"))
+				{
+					operations[i] = new Decommenter(positional[1]);
+				}
+				else if (names[i].equals("indexer"))
+				{
+					// The index is only saved by the indexer's own run
+					if (names.length > 1)
+					{
+						throw new IllegalArgumentException("The indexer can't be joined with other workers");
+					}
+					
+					operations[i] = new Indexer(positional[1], TagIndex.forLibrary(new File(positional[1])));
+				}
+				else if (names[i].equals("mover"))
+				{
+					Mover mover = new Mover(positional[1], positional[2]);
+					if (mode != null)
+					{
+						mover.setTransferMode(mode);
+					}
+					if (duplicates != null && duplicates != Mover.DuplicateMode.KEEP)
+					{
+						mover.setDuplicateMode(duplicates, HashCache.forLibrary(new File(positional[1])));
+					}
+					operations[i] = mover;
+				}
+				else
+				{
+					throw new IllegalArgumentException("Unknown worker " + names[i]);
+				}
+			}
+			
+			AudioTagWorker worker = operations.length == 1 ? operations[0] : new CompositeWorker(positional[1], operations);
+			
+			// A composite only runs the mover's transform and write, not the search before
+			if (duplicates != null && duplicates != Mover.DuplicateMode.KEEP && !(worker instanceof Mover))
+			{
+				throw new IllegalArgumentException("Duplicates only work with the mover on its own");
+			}
+			
+			// The indexer skips unchanged files by itself, and any file skipped before it gets
+			// a look would be dropped from the index as if it were gone
+			if ((useManifest || useJournal) && worker instanceof Indexer)
+			{
+				throw new IllegalArgumentException("The indexer keeps track of unchanged files itself, it can't use --manifest or --journal");
+			}
+			
+			if ((savePlan != null || loadPlan != null) && !(worker instanceof Mover))
+			{
+				throw new IllegalArgumentException("Plans only work with the mover on its own");
+			}
+			
+			if (savePlan != null && useJournal)
+			{
+				throw new IllegalArgumentException("Planning doesn't finish any files, so it can't keep a journal");
+			}
+			
+			if (savePlan != null && watch)
+			{
+				throw new IllegalArgumentException("Planning can't watch for new files");
+			}
+			
+			if (useIndex && savePlan == null)
+			{
+				throw new IllegalArgumentException("The tag index is only used for planning");
+			}
+			
+			if (savePlan != null)
+			{
+				((Mover) worker).setPlanOnly(true);
+				
+				if (useIndex)
+				{
+					((Mover) worker).setTagIndex(TagIndex.forLibrary(new File(positional[1])));
+				}
+			}
+			
+			if (loadPlan != null)
+			{
+				((Mover) worker).setPlan(MovePlan.load(new File(loadPlan)));
+			}
+			
+			Logger logger = new Logger(System.err);
+			if (logFile != null)
+			{
+				logger.addSink(new RollingFileLogSink(new File(logFile)));
+			}
+			worker.setLogger(logger);
+			worker.setThreads(threads);
+			worker.setVirtualThreads(virtualThreads);
+			
+			if (stageThreads != null)
+			{
+				worker.setPipelined(true);
+				worker.setStageThreads(stageThreads[0], stageThreads[1], stageThreads[2]);
+			}
+			
+			if (adaptiveIo)
+			{
+				worker.setDeviceLimiter(new DeviceLimiter());
+			}
+			
+			if (useManifest)
+			{
+				worker.setManifest(Manifest.forLibrary(new File(positional[1]), worker.getName()));
+			}
+			
+			if (useJournal)
+			{
+				worker.setJournal(Journal.forLibrary(new File(positional[1]), worker.getName()));
+			}
+			
+			// Kept open for the watcher's batches too
+			MetricsExporter exporter = null;
+			if (metricsFile != null)
+			{
+				exporter = new MetricsExporter(new File(metricsFile));
+				worker.getMetrics().addListener(exporter);
+			}
+			
+			BatchRunner runner = new BatchRunner(worker, System.out);
+			runner.setInterval(interval);
+			
+			int code = runner.run();
+			
+			if (savePlan != null && code != EXIT_ERROR)
+			{
+				try
+				{
+					((Mover) worker).getPlan().save(new File(savePlan));
+				}
+				catch (IOException e)
+				{
+					logger.log("Could not save the plan: " + e.getMessage());
+					code = EXIT_ERROR;
+				}
+			}
+			
+			// Runs until the process is killed
+			if (watch && code != EXIT_ERROR)
+			{
+				runner.watch();
+			}
+			
+			if (exporter != null)
+			{
+				exporter.close();
+			}
+			
+			// Whatever is still queued would be lost on exit
+			logger.close();
+			System.exit(code);
+		}
+		catch (IllegalArgumentException e)
+		{
+			System.err.println(e.getMessage());
+			System.err.print(USAGE);
+			System.exit(EXIT_USAGE);
+		}
+		catch (IOException e)
+		{
+			System.err.println("Could not start: " + e.getMessage());
+			System.exit(EXIT_ERROR);
+		}
+	}
+	
+	/**
+	 * Gets the value of an option.
+	 */
+	protected static String value(String[] args, int i, String option)
+	{
+		if (i >= args.length)
+		{
+			throw new IllegalArgumentException("Missing value for " + option);
+		}
+		
+		return args[i];
+	}
+}
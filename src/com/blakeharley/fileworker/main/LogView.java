@@ -0,0 +1,214 @@
+package com.blakeharley.fileworker.main;
+
+import java.awt.Font;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.swing.AbstractListModel;
+import javax.swing.JList;
+import javax.swing.JScrollBar;
+import javax.swing.JScrollPane;
+import javax.swing.Timer;
+
+import com.blakeharley.fileworker.utils.LogSink;
+
+/**
+ * Shows the most recent log lines in the main window. Only a fixed amount of lines is
+ * kept, and the list only paints the rows that are on screen, so a long job costs the
+ * window no more than a short one.
+ * 
+ * Lines arrive on the logger's thread and wait until the next frame, when everything
+ * that came in since is added in one go.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+@SuppressWarnings("serial")
+public class LogView extends JScrollPane implements LogSink
+{
+	/**
+	 * How long lines wait for company before they are shown, about one frame.
+	 */
+	protected static final int FRAME_MILLIS = 16;
+	
+	/**
+	 * The last lines logged, oldest first.
+	 */
+	protected static class RingModel extends AbstractListModel<String>
+	{
+		protected String[] lines;
+		
+		/**
+		 * Where the oldest line is.
+		 */
+		protected int start = 0;
+		
+		protected int size = 0;
+		
+		public RingModel(int capacity)
+		{
+			this.lines = new String[capacity];
+		}
+		
+		@Override
+		public int getSize()
+		{
+			return this.size;
+		}
+		
+		@Override
+		public String getElementAt(int index)
+		{
+			return this.lines[(this.start + index) % this.lines.length];
+		}
+		
+		/**
+		 * Adds lines to the end, pushing the oldest ones out once full. Only call this on
+		 * the event dispatch thread.
+		 * 
+		 * @param added The lines to add
+		 */
+		public void addAll(ArrayDeque<String> added)
+		{
+			int count = Math.min(added.size(), this.lines.length);
+			int removed = Math.max(0, this.size + count - this.lines.length);
+			
+			// Anything that wouldn't fit anyway
+			while (added.size() > count)
+			{
+				added.poll();
+			}
+			
+			if (removed > 0)
+			{
+				for (int i = 0; i < removed; i++)
+				{
+					this.lines[(this.start + i) % this.lines.length] = null;
+				}
+				this.start = (this.start + removed) % this.lines.length;
+				this.size -= removed;
+				this.fireIntervalRemoved(this, 0, removed - 1);
+			}
+			
+			int first = this.size;
+			for (String line : added)
+			{
+				this.lines[(this.start + this.size) % this.lines.length] = line;
+				this.size++;
+			}
+			
+			if (count > 0)
+			{
+				this.fireIntervalAdded(this, first, this.size - 1);
+			}
+		}
+	}
+	
+	protected RingModel model;
+	
+	protected JList<String> list;
+	
+	/**
+	 * Lines that have arrived but aren't shown yet. Guarded by itself.
+	 */
+	protected final ArrayDeque<String> pending = new ArrayDeque<String>();
+	
+	/**
+	 * Whether the timer is already going to pick up the pending lines.
+	 */
+	protected AtomicBoolean scheduled = new AtomicBoolean(false);
+	
+	protected Timer timer;
+	
+	/**
+	 * Creates a view that keeps the given amount of lines.
+	 * 
+	 * @param capacity The most lines kept
+	 * @param font The font to show them in
+	 */
+	public LogView(int capacity, Font font)
+	{
+		this.model = new RingModel(capacity);
+		this.list = new JList<String>(this.model);
+		this.list.setFont(font);
+		
+		// With a fixed row size the list doesn't have to measure every line. Rows still
+		// stretch to the width of the window.
+		this.list.setPrototypeCellValue("[00:00:00] Tag could not be read: some/long/path/to/a/file.mp3");
+		
+		this.setViewportView(this.list);
+		
+		this.timer = new Timer(FRAME_MILLIS, new ActionListener()
+		{
+			@Override
+			public void actionPerformed(ActionEvent e)
+			{
+				showPending();
+			}
+		});
+		this.timer.setRepeats(false);
+	}
+	
+	@Override
+	public void write(List<String> lines)
+	{
+		synchronized (this.pending)
+		{
+			this.pending.addAll(lines);
+			
+			// No point holding on to more than we can show
+			while (this.pending.size() > this.model.lines.length)
+			{
+				this.pending.poll();
+			}
+		}
+		
+		if (this.scheduled.compareAndSet(false, true))
+		{
+			this.timer.restart();
+		}
+	}
+	
+	/**
+	 * Moves the pending lines into the list. Runs on the event dispatch thread.
+	 */
+	protected void showPending()
+	{
+		this.scheduled.set(false);
+		
+		ArrayDeque<String> lines;
+		synchronized (this.pending)
+		{
+			if (this.pending.isEmpty())
+			{
+				return;
+			}
+			
+			lines = new ArrayDeque<String>(this.pending);
+			this.pending.clear();
+		}
+		
+		// Only follow the log if the user hasn't scrolled up to read something
+		JScrollBar bar = this.getVerticalScrollBar();
+		boolean following = bar.getValue() + bar.getVisibleAmount() >= bar.getMaximum();
+		
+		this.model.addAll(lines);
+		
+		if (following)
+		{
+			this.list.ensureIndexIsVisible(this.model.getSize() - 1);
+		}
+	}
+	
+	@Override
+	public void flush()
+	{
+	}
+	
+	@Override
+	public void close()
+	{
+	}
+}
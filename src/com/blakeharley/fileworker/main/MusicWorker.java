@@ -3,14 +3,18 @@ package com.blakeharley.fileworker.main;
 import java.awt.Container;
 import java.awt.Dimension;
 import java.awt.Font;
+import java.io.File;
+import java.io.IOException;
 
 import javax.swing.JFrame;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
-import javax.swing.JTextArea;
 import javax.swing.SwingUtilities;
 
+import com.blakeharley.fileworker.utils.Journal;
 import com.blakeharley.fileworker.utils.Logger;
+import com.blakeharley.fileworker.utils.Manifest;
+import com.blakeharley.fileworker.worker.Metrics;
 import com.blakeharley.fileworker.worker.Worker;
 import com.blakeharley.fileworker.worker.decommenter.Decommenter;
 import com.blakeharley.fileworker.worker.mover.Mover;
@@ -30,7 +34,7 @@ public class MusicWorker extends JFrame
 	protected JPanel pane;
 	protected JProgressBar progressBar;
 	protected final int progressBarMax = 10000;
-	protected JTextArea textArea;
+	protected LogView logView;
 	
 	/**
 	 * Starts a new swing pane and starts the cogs moving.
@@ -60,65 +64,49 @@ public class MusicWorker extends JFrame
 		this.progressBar.setPreferredSize(new Dimension(width - 20, 20));
 		this.progressBar.setMaximum(this.progressBarMax);
 		
-		// Set up the text area
-		this.textArea = new JTextArea();
-		this.textArea.setPreferredSize(new Dimension(width - 20, height - 65));
-		this.textArea.setEditable(false);
+		// Set up the log view
 		Font font = new Font("Consolas", Font.PLAIN, 13);
-		this.textArea.setFont(font);
+		this.logView = new LogView(10000, font);
+		this.logView.setPreferredSize(new Dimension(width - 20, height - 65));
 		
 		// Set up the worker
-		Logger logger = new Logger(this.textArea);
+		Logger logger = new Logger(this.logView);
 		worker.setLogger(logger);
 		
 		// Stitch it all together
 		Container con = this.getContentPane();
 		con.add(pane);
 		this.pane.add(this.progressBar);
-		this.pane.add(this.textArea);
+		this.pane.add(this.logView);
 		this.setVisible(true);
 		
-		// This thread will handle updating the progress bar
-		new Thread(new Runnable()
+		// The worker tells us how it's doing, we just pass it on to the EDT
+		worker.getMetrics().addListener(new Metrics.Listener()
 		{
 			@Override
-			public void run()
+			public void metricsUpdated(final Metrics.Snapshot snapshot)
 			{
-				// Run to infinity and beyond
-				while (1 == 1)
+				final String str = worker.getProgressString();
+				
+				SwingUtilities.invokeLater(new Runnable()
 				{
-					final String str = worker.getProgressString();
-					
-					// If we don't have a string to show, display the progress
-					if (str == null)
+					@Override
+					public void run()
 					{
-						SwingUtilities.invokeLater(new Runnable()
+						// If we don't have a string to show, display the progress
+						if (str == null)
 						{
-							@Override
-							public void run()
-							{
-								updateProgressBar((int) (progressBarMax * worker.getPercentDone()));
-							}
-						});
-					}
-					// Looks like we have a string to display
-					else
-					{
-						SwingUtilities.invokeLater(new Runnable()
+							updateProgressBar(snapshot);
+						}
+						// Looks like we have a string to display
+						else
 						{
-							@Override
-							public void run()
-							{
-								updateProgressBarText(str);
-							}
-						});
+							updateProgressBarText(str);
+						}
 					}
-					
-					// Sleep for a wee bit
-					try { Thread.sleep(500); } catch (InterruptedException e) {}
-				}
+				});
 			}
-		}).start();
+		});
 		
 		// Finally, start the worker
 		worker.doWork();
@@ -144,27 +132,39 @@ public class MusicWorker extends JFrame
 	 * Updates the current value of the progress bar. If the progress bar is in
 	 * indeterminate mode, it will be kicked out of it.
 	 * 
-	 * @param val The value to update the progress bar to
+	 * @param snapshot The worker's metrics to update the progress bar to
 	 */
-	protected void updateProgressBar(int val)
+	protected void updateProgressBar(Metrics.Snapshot snapshot)
 	{
 		// If we're indeterminate, return to our normal state
 		if (this.progressBar.isIndeterminate())
 		{
 			this.progressBar.setIndeterminate(false);
-			this.progressBar.setString(null);
 		}
 		
-		this.progressBar.setValue(val);
+		float percent = snapshot.getPercentDone();
+		String str = (int) (percent * 100) + "% - " + (int) snapshot.filesPerSecond + " files/s";
+		
+		if (snapshot.etaMillis > 0)
+		{
+			long seconds = snapshot.etaMillis / 1000;
+			str += String.format(" - %d:%02d left", seconds / 60, seconds % 60);
+		}
+		
+		this.progressBar.setValue((int) (this.progressBarMax * percent));
+		this.progressBar.setString(str);
 	}
 	
 	/**
 	 * @param args
 	 */
-	public static void main(String[] args)
+	public static void main(String[] args) throws IOException
 	{
 		//Worker worker = new Mover("D:\\Music", "D:\\Music-new");
-		Worker worker = new Decommenter("D:\\Music-new");
+		Decommenter worker = new Decommenter("D:\\Music-new");
+		worker.setManifest(Manifest.forLibrary(new File("D:\\Music-new"), worker.getName()));
+		worker.setJournal(Journal.forLibrary(new File("D:\\Music-new"), worker.getName()));
+		worker.setThreads(Runtime.getRuntime().availableProcessors());
 		
 		new MusicWorker(worker);
 	}
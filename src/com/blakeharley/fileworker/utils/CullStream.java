@@ -0,0 +1,202 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.File;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The files found by a running Cull, handed out while the scan is still going. The
+ * scanner is held back once the queue is full so a slow consumer doesn't cause the
+ * whole tree to pile up in memory.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class CullStream implements Iterator<File>, Iterable<File>
+{
+	/**
+	 * Marks the end of the stream. Compared by identity only.
+	 */
+	protected static final File END = new File("");
+	
+	/**
+	 * The files that have been found but not claimed yet.
+	 */
+	protected BlockingQueue<File> queue;
+	
+	/**
+	 * The next file to be handed out, if we've already peeked at it.
+	 */
+	protected File next;
+	
+	/**
+	 * The amount of files found so far.
+	 */
+	protected AtomicInteger found = new AtomicInteger();
+	
+	/**
+	 * Whether the scan has finished.
+	 */
+	protected volatile boolean done = false;
+	
+	/**
+	 * Whether the consumer has stopped taking files, so the scan can stop too.
+	 */
+	protected volatile boolean closed = false;
+	
+	/**
+	 * Creates a new stream with room for the given amount of pending files.
+	 * 
+	 * @param capacity The maximum amount of found files waiting to be claimed
+	 */
+	public CullStream(int capacity)
+	{
+		this.queue = new ArrayBlockingQueue<File>(capacity);
+	}
+	
+	/**
+	 * Creates a new stream with a reasonable amount of room.
+	 */
+	public CullStream()
+	{
+		this(4096);
+	}
+	
+	/**
+	 * Adds a found file, waiting for room if the consumer has fallen behind.
+	 * 
+	 * @param file The file that made the cut
+	 */
+	public void put(File file)
+	{
+		// Nobody is going to take it
+		if (this.closed)
+		{
+			return;
+		}
+		
+		try
+		{
+			this.found.incrementAndGet();
+			this.queue.put(file);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Marks the scan as finished.
+	 */
+	public void finish()
+	{
+		this.done = true;
+		
+		if (this.closed)
+		{
+			return;
+		}
+		
+		try
+		{
+			this.queue.put(END);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Stops taking files, e.g. because the work was cut short. The files still waiting
+	 * are dropped, which frees a scanner that was waiting for room, and the scan stops
+	 * listing directories. Call it from the consumer once it's done, in a finally.
+	 */
+	public void close()
+	{
+		this.closed = true;
+		this.next = END;
+		this.queue.clear();
+	}
+	
+	/**
+	 * Whether the consumer stopped taking files.
+	 * 
+	 * @return True once close() was called
+	 */
+	public boolean isClosed()
+	{
+		return this.closed;
+	}
+	
+	/**
+	 * The amount of files found so far. This keeps growing until the scan is done.
+	 * 
+	 * @return Files found
+	 */
+	public int getFound()
+	{
+		return this.found.get();
+	}
+	
+	/**
+	 * Whether the scan has finished, meaning getFound() is the final total.
+	 * 
+	 * @return True once the whole tree has been scanned
+	 */
+	public boolean isDone()
+	{
+		return this.done;
+	}
+	
+	/**
+	 * Waits until another file is found or the scan finishes.
+	 */
+	@Override
+	public boolean hasNext()
+	{
+		if (this.next == null)
+		{
+			try
+			{
+				this.next = this.queue.take();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				this.next = END;
+			}
+		}
+		
+		return this.next != END;
+	}
+	
+	@Override
+	public File next()
+	{
+		if (!this.hasNext())
+		{
+			throw new NoSuchElementException();
+		}
+		
+		File file = this.next;
+		this.next = null;
+		
+		return file;
+	}
+	
+	@Override
+	public void remove()
+	{
+		throw new UnsupportedOperationException();
+	}
+	
+	@Override
+	public Iterator<File> iterator()
+	{
+		return this;
+	}
+}
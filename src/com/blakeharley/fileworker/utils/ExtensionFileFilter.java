@@ -0,0 +1,73 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.File;
+import java.io.FileFilter;
+import java.util.ArrayList;
+
+class ExtensionFileFilter implements FileFilter
+{
+	protected ArrayList<String> extensions;
+	
+	public ExtensionFileFilter(String[] extensions)
+	{
+		ArrayList<String> list = new ArrayList<String>();
+		
+		for (String item : extensions)
+		{
+			list.add(item);
+		}
+		
+		this.setExtensions(list);
+	}
+	
+	public ExtensionFileFilter(ArrayList<String> list)
+	{
+		this.setExtensions(list);
+	}
+	
+	/**
+	 * Adds the given extensions to this filter. Makes sure that the extensions
+	 * are in lower case.
+	 * 
+	 * @param extensions
+	 */
+	public void setExtensions(ArrayList<String> extensions)
+	{
+		for (int i = 0; i < extensions.size(); i++)
+		{
+			extensions.set(i, extensions.get(i).toLowerCase());
+		}
+		
+		this.extensions = extensions;
+	}
+	
+	public boolean accept(File file)
+	{
+		// Directories get a pass
+		if (file.isDirectory())
+		{
+			return true;
+		}
+		
+		return this.accept(file.getName());
+	}
+	
+	/**
+	 * Checks the extension of the given file name without touching the disk.
+	 * 
+	 * @param name The file name
+	 * @return Whether the extension matches
+	 */
+	public boolean accept(String name)
+	{
+		// Parse the extension
+		String ext = name.substring(name.lastIndexOf('.') + 1);
+		
+		if (extensions.contains(ext.toLowerCase()))
+		{
+			return true;
+		}
+		
+		return false;
+	}
+}
@@ -0,0 +1,239 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.File;
+import java.nio.charset.Charset;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A list of files that takes a fraction of the memory of an ArrayList of them.
+ * 
+ * Each File in a list holds its whole path, so the directory part is stored again for
+ * every track of an album, along with a couple of objects per file. Here the directories
+ * are a tree: each one is only its own name and the index of its parent, so even the
+ * artist part of a path is stored once rather than once per album. The file names are
+ * packed into one big array of UTF-8 bytes the same way, with the index of their
+ * directory next to them. A File is only put together when it's asked for.
+ * 
+ * FileSetFootprint in the benchmarks measures a made up library of a million tracks, ten
+ * to an album, at 41MB against 168MB for the same files in an ArrayList (Java 17). About
+ * 30 of the 41 bytes a track are the bytes of its name, so that's close to as small as
+ * it gets without compressing the names themselves.
+ * 
+ * The list can only be added to, from a single thread. Reading is safe from several
+ * threads once it's done.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class FileSet extends AbstractList<File> implements RandomAccess
+{
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/**
+	 * Strings packed one after the other into a single array of UTF-8 bytes.
+	 */
+	protected static class PackedNames
+	{
+		/**
+		 * Where each name starts. A name ends where the next one starts, so there's one
+		 * more of these than there are names.
+		 */
+		protected int[] starts = new int[17];
+		
+		protected byte[] bytes = new byte[256];
+		
+		protected int size = 0;
+		
+		/**
+		 * Adds a name to the end.
+		 * 
+		 * @return Its index
+		 */
+		public int add(String name)
+		{
+			byte[] encoded = name.getBytes(UTF8);
+			int start = this.starts[this.size];
+			
+			if (this.size + 1 == this.starts.length)
+			{
+				this.starts = Arrays.copyOf(this.starts, this.starts.length * 2);
+			}
+			
+			if (start + encoded.length > this.bytes.length)
+			{
+				this.bytes = Arrays.copyOf(this.bytes, Math.max(this.bytes.length * 2, start + encoded.length));
+			}
+			
+			System.arraycopy(encoded, 0, this.bytes, start, encoded.length);
+			this.starts[this.size + 1] = start + encoded.length;
+			
+			return this.size++;
+		}
+		
+		public String get(int index)
+		{
+			int start = this.starts[index];
+			
+			return new String(this.bytes, start, this.starts[index + 1] - start, UTF8);
+		}
+		
+		public void trim()
+		{
+			this.starts = Arrays.copyOf(this.starts, this.size + 1);
+			this.bytes = Arrays.copyOf(this.bytes, this.starts[this.size]);
+		}
+	}
+	
+	/**
+	 * The last directory put together, since files are mostly asked for in order and
+	 * the ones in a row share a directory.
+	 */
+	protected static class CachedDirectory
+	{
+		final int index;
+		final File file;
+		
+		CachedDirectory(int index, File file)
+		{
+			this.index = index;
+			this.file = file;
+		}
+	}
+	
+	/**
+	 * The name of every directory. Directories without a parent have their whole path
+	 * as their name.
+	 */
+	protected PackedNames directoryNames = new PackedNames();
+	
+	/**
+	 * The index of each directory's parent, or -1 if it has none.
+	 */
+	protected int[] directoryParents = new int[16];
+	
+	/**
+	 * The names of all the files.
+	 */
+	protected PackedNames fileNames = new PackedNames();
+	
+	/**
+	 * The index of each file's directory.
+	 */
+	protected int[] parents = new int[16];
+	
+	protected volatile CachedDirectory cached;
+	
+	/**
+	 * Adds a directory, which can then have files and other directories in it.
+	 * 
+	 * @param parent The index of the directory it's in, or -1 if it's a top directory
+	 * @param name Its name, or its whole path if it's a top directory
+	 * @return The index to pass to addFile() and addDirectory()
+	 */
+	public int addDirectory(int parent, String name)
+	{
+		int index = this.directoryNames.add(name);
+		
+		if (index == this.directoryParents.length)
+		{
+			this.directoryParents = Arrays.copyOf(this.directoryParents, this.directoryParents.length * 2);
+		}
+		
+		this.directoryParents[index] = parent;
+		
+		return index;
+	}
+	
+	/**
+	 * Adds a top directory.
+	 * 
+	 * @param directory The directory
+	 * @return The index to pass to addFile() and addDirectory()
+	 */
+	public int addDirectory(File directory)
+	{
+		return this.addDirectory(-1, directory.getPath());
+	}
+	
+	/**
+	 * Adds a file to the end of the list.
+	 * 
+	 * @param directory The index of its directory, from addDirectory()
+	 * @param name The file name
+	 */
+	public void addFile(int directory, String name)
+	{
+		int index = this.fileNames.add(name);
+		
+		if (index == this.parents.length)
+		{
+			this.parents = Arrays.copyOf(this.parents, this.parents.length * 2);
+		}
+		
+		this.parents[index] = directory;
+		this.modCount++;
+	}
+	
+	/**
+	 * Gives back the room left over from growing the list, once nothing else is added.
+	 */
+	public void trim()
+	{
+		this.directoryNames.trim();
+		this.directoryParents = Arrays.copyOf(this.directoryParents, this.directoryNames.size);
+		this.fileNames.trim();
+		this.parents = Arrays.copyOf(this.parents, this.fileNames.size);
+	}
+	
+	@Override
+	public File get(int index)
+	{
+		if (index < 0 || index >= this.fileNames.size)
+		{
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + this.fileNames.size);
+		}
+		
+		return new File(this.getDirectory(this.parents[index]), this.fileNames.get(index));
+	}
+	
+	/**
+	 * Puts together the path of a directory.
+	 * 
+	 * @param index The index of the directory
+	 * @return The directory
+	 */
+	protected File getDirectory(int index)
+	{
+		CachedDirectory cached = this.cached;
+		if (cached != null && cached.index == index)
+		{
+			return cached.file;
+		}
+		
+		int parent = this.directoryParents[index];
+		String name = this.directoryNames.get(index);
+		File directory = parent < 0 ? new File(name) : new File(this.getDirectory(parent), name);
+		
+		this.cached = new CachedDirectory(index, directory);
+		
+		return directory;
+	}
+	
+	@Override
+	public int size()
+	{
+		return this.fileNames.size;
+	}
+	
+	/**
+	 * The number of directories stored, including those that only have other directories
+	 * in them.
+	 * 
+	 * @return Directories
+	 */
+	public int getDirectoryCount()
+	{
+		return this.directoryNames.size;
+	}
+}
@@ -0,0 +1,259 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the size and hash of the audio in each file, so looking for duplicates
+ * doesn't have to read the whole library again every run. An entry only counts as long
+ * as the file's size and modification time are the same as when it was recorded.
+ * 
+ * The cache is a plain text file, one file per line:
+ * 
+ *   size  mtime  audio size  hash  path
+ * 
+ * The hash is "-" for files that were never hashed because no other file had audio of
+ * the same size. Only the files looked up during a run are kept when the cache is saved.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class HashCache
+{
+	/**
+	 * What is known about a file's audio.
+	 */
+	public static class Entry
+	{
+		public final long size;
+		public final long modified;
+		public final long audioSize;
+		
+		/**
+		 * The hash of the audio, or null if it hasn't been hashed.
+		 */
+		public final String hash;
+		
+		public Entry(long size, long modified, long audioSize, String hash)
+		{
+			this.size = size;
+			this.modified = modified;
+			this.audioSize = audioSize;
+			this.hash = hash;
+		}
+	}
+	
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	protected static final String HEADER = "# FileWorker hash cache v1";
+	
+	/**
+	 * Where the cache lives on disk.
+	 */
+	protected File file;
+	
+	/**
+	 * Files keyed by absolute path.
+	 */
+	protected Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	
+	/**
+	 * The paths looked up or added since the cache was loaded.
+	 */
+	protected Set<String> used = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/**
+	 * Creates a cache stored in the given file. Nothing is read until load() is called.
+	 * 
+	 * @param file The cache file
+	 */
+	public HashCache(File file)
+	{
+		this.file = file;
+	}
+	
+	/**
+	 * Creates and loads the cache kept next to the given library.
+	 * 
+	 * @param library The library directory
+	 * @return The loaded cache
+	 * @throws IOException
+	 */
+	public static HashCache forLibrary(File library) throws IOException
+	{
+		HashCache cache = new HashCache(new File(new File(library, ".fileworker"), "hashes"));
+		cache.load();
+		
+		return cache;
+	}
+	
+	/**
+	 * The cache file.
+	 * 
+	 * @return A file that might not exist yet
+	 */
+	public File getFile()
+	{
+		return this.file;
+	}
+	
+	/**
+	 * Gets what is known about the given file, but only if it hasn't changed since. This
+	 * costs a single stat and never opens the file.
+	 * 
+	 * @param file The file
+	 * @return The entry, or null if the file has to be read
+	 */
+	public Entry get(File file)
+	{
+		String path = file.getAbsolutePath();
+		Entry entry = this.entries.get(path);
+		this.used.add(path);
+		
+		if (entry == null)
+		{
+			return null;
+		}
+		
+		try
+		{
+			BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			
+			if (attrs.size() == entry.size && attrs.lastModifiedTime().toMillis() == entry.modified)
+			{
+				return entry;
+			}
+		}
+		catch (IOException e)
+		{
+			// Gone, or can't be read; either way the entry is no good
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Records what was found out about the given file. Call this right after reading it,
+	 * so its current size and modification time are picked up.
+	 * 
+	 * @param file The file
+	 * @param audioSize The size of its audio
+	 * @param hash The hash of its audio, or null if it wasn't hashed
+	 */
+	public void put(File file, long audioSize, String hash)
+	{
+		try
+		{
+			BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			String path = file.getAbsolutePath();
+			
+			this.entries.put(path, new Entry(attrs.size(), attrs.lastModifiedTime().toMillis(), audioSize, hash));
+			this.used.add(path);
+		}
+		catch (IOException e)
+		{
+			// Nothing to cache for a file that can't be looked at
+		}
+	}
+	
+	/**
+	 * Reads the cache from disk. A missing or mangled file leaves the cache empty.
+	 * 
+	 * @throws IOException
+	 */
+	public void load() throws IOException
+	{
+		this.entries.clear();
+		this.used.clear();
+		
+		if (!this.file.isFile())
+		{
+			return;
+		}
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), UTF8));
+		
+		try
+		{
+			if (!HEADER.equals(reader.readLine()))
+			{
+				return;
+			}
+			
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] parts = line.split("\t", 5);
+				String hash = parts[3].equals("-") ? null : parts[3];
+				
+				this.entries.put(parts[4], new Entry(Long.parseLong(parts[0]), Long.parseLong(parts[1]),
+					Long.parseLong(parts[2]), hash));
+			}
+		}
+		catch (RuntimeException e)
+		{
+			// A mangled cache only costs us the hashing
+			this.entries.clear();
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Writes the cache to disk. The old cache is only replaced once the new one has been
+	 * written completely.
+	 * 
+	 * @throws IOException
+	 */
+	public void save() throws IOException
+	{
+		File parent = this.file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+		{
+			throw new IOException("Could not create " + parent.getAbsolutePath());
+		}
+		
+		File temp = new File(parent, this.file.getName() + ".tmp");
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8));
+		
+		try
+		{
+			writer.write(HEADER);
+			writer.newLine();
+			
+			for (Map.Entry<String, Entry> item : this.entries.entrySet())
+			{
+				if (!this.used.contains(item.getKey()))
+				{
+					continue;
+				}
+				
+				Entry entry = item.getValue();
+				writer.write(entry.size + "\t" + entry.modified + "\t" + entry.audioSize + "\t"
+					+ (entry.hash == null ? "-" : entry.hash) + "\t" + item.getKey());
+				writer.newLine();
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+		
+		Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
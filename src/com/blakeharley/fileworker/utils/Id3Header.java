@@ -0,0 +1,266 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The layout of the ID3 tags in an MP3 file, read straight from the bytes without
+ * parsing any frames. An MP3 is laid out as an optional ID3v2 tag at the start, the
+ * audio frames, and an optional 128 byte ID3v1 tag at the very end.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class Id3Header
+{
+	/**
+	 * The size of an ID3v2 header, and of its footer if it has one.
+	 */
+	public static final int HEADER_SIZE = 10;
+	
+	/**
+	 * The size of an ID3v1 tag.
+	 */
+	public static final int ID3V1_SIZE = 128;
+	
+	/**
+	 * Set when the whole tag has been unsynchronised.
+	 */
+	public static final int FLAG_UNSYNCHRONISATION = 0x80;
+	
+	/**
+	 * Set when an extended header follows the header.
+	 */
+	public static final int FLAG_EXTENDED_HEADER = 0x40;
+	
+	/**
+	 * Set when a footer follows the tag (ID3v2.4 only).
+	 */
+	public static final int FLAG_FOOTER = 0x10;
+	
+	/**
+	 * The major version of the ID3v2 tag (2, 3 or 4), or 0 if there isn't one.
+	 */
+	protected int version;
+	
+	/**
+	 * The ID3v2 header flags.
+	 */
+	protected int flags;
+	
+	/**
+	 * The size of the ID3v2 tag, excluding the header and footer. This includes padding.
+	 */
+	protected int bodySize;
+	
+	/**
+	 * Whether there's an ID3v1 tag at the end of the file.
+	 */
+	protected boolean id3v1;
+	
+	/**
+	 * The size of the whole file.
+	 */
+	protected long fileSize;
+	
+	/**
+	 * Reads the tag layout of the file behind the given channel. The channel's position
+	 * isn't used or changed.
+	 * 
+	 * @param channel An open channel to an MP3 file
+	 * @return The layout of the file
+	 * @throws IOException
+	 */
+	public static Id3Header read(FileChannel channel) throws IOException
+	{
+		Id3Header header = new Id3Header();
+		header.readFrom(channel);
+		
+		return header;
+	}
+	
+	/**
+	 * Fills in this header from the file behind the given channel.
+	 * 
+	 * @param channel An open channel to an MP3 file
+	 * @throws IOException
+	 */
+	protected void readFrom(FileChannel channel) throws IOException
+	{
+		this.fileSize = channel.size();
+		
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE);
+		if (readFully(channel, buffer, 0))
+		{
+			this.parse(buffer.array());
+		}
+		
+		if (this.fileSize >= this.getTagSize() + ID3V1_SIZE)
+		{
+			buffer = ByteBuffer.allocate(3);
+			this.id3v1 = readFully(channel, buffer, this.fileSize - ID3V1_SIZE)
+				&& buffer.get(0) == 'T' && buffer.get(1) == 'A' && buffer.get(2) == 'G';
+		}
+	}
+	
+	/**
+	 * Reads the ID3v2 header from the first ten bytes of a file.
+	 * 
+	 * @param bytes At least ten bytes
+	 */
+	protected void parse(byte[] bytes)
+	{
+		if (bytes[0] != 'I' || bytes[1] != 'D' || bytes[2] != '3')
+		{
+			return;
+		}
+		
+		// The size is "syncsafe": seven bits per byte, so no byte looks like a frame sync
+		int size = 0;
+		for (int i = 6; i < 10; i++)
+		{
+			if ((bytes[i] & 0x80) != 0)
+			{
+				return;
+			}
+			
+			size = (size << 7) | bytes[i];
+		}
+		
+		this.version = bytes[3];
+		this.flags = bytes[5] & 0xff;
+		this.bodySize = size;
+	}
+	
+	/**
+	 * Fills the buffer from the given position.
+	 * 
+	 * @return False if the file ended first
+	 */
+	protected static boolean readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+	{
+		while (buffer.hasRemaining())
+		{
+			int read = channel.read(buffer, position);
+			
+			if (read < 0)
+			{
+				return false;
+			}
+			
+			position += read;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Encodes a size in the syncsafe form used by ID3v2 headers.
+	 * 
+	 * @param size The size
+	 * @param bytes Where to put the four encoded bytes
+	 * @param offset Where in the array to put them
+	 */
+	public static void writeSyncsafe(int size, byte[] bytes, int offset)
+	{
+		bytes[offset]     = (byte) ((size >> 21) & 0x7f);
+		bytes[offset + 1] = (byte) ((size >> 14) & 0x7f);
+		bytes[offset + 2] = (byte) ((size >> 7) & 0x7f);
+		bytes[offset + 3] = (byte) (size & 0x7f);
+	}
+	
+	/**
+	 * Whether the file starts with an ID3v2 tag.
+	 * 
+	 * @return True if there's an ID3v2 tag
+	 */
+	public boolean hasId3v2()
+	{
+		return this.version != 0;
+	}
+	
+	/**
+	 * The major version of the ID3v2 tag.
+	 * 
+	 * @return 2, 3 or 4, or 0 if there is no ID3v2 tag
+	 */
+	public int getVersion()
+	{
+		return this.version;
+	}
+	
+	/**
+	 * The ID3v2 header flags.
+	 * 
+	 * @return The flags byte
+	 */
+	public int getFlags()
+	{
+		return this.flags;
+	}
+	
+	/**
+	 * The size of the ID3v2 tag after the header, padding included.
+	 * 
+	 * @return The size in bytes
+	 */
+	public int getBodySize()
+	{
+		return this.bodySize;
+	}
+	
+	/**
+	 * The size of the whole ID3v2 tag including its header and footer.
+	 * 
+	 * @return The size in bytes, or 0 if there is no ID3v2 tag
+	 */
+	public long getTagSize()
+	{
+		if (!this.hasId3v2())
+		{
+			return 0;
+		}
+		
+		return HEADER_SIZE + this.bodySize + ((this.flags & FLAG_FOOTER) != 0 ? HEADER_SIZE : 0);
+	}
+	
+	/**
+	 * Whether the file ends with an ID3v1 tag.
+	 * 
+	 * @return True if there's an ID3v1 tag
+	 */
+	public boolean hasId3v1()
+	{
+		return this.id3v1;
+	}
+	
+	/**
+	 * The size of the whole file.
+	 * 
+	 * @return The size in bytes
+	 */
+	public long getFileSize()
+	{
+		return this.fileSize;
+	}
+	
+	/**
+	 * Where the audio starts, right after the ID3v2 tag.
+	 * 
+	 * @return The offset in bytes
+	 */
+	public long getAudioStart()
+	{
+		return Math.min(this.getTagSize(), this.fileSize);
+	}
+	
+	/**
+	 * Where the audio ends, right before the ID3v1 tag.
+	 * 
+	 * @return The offset in bytes
+	 */
+	public long getAudioEnd()
+	{
+		return this.fileSize - (this.id3v1 ? ID3V1_SIZE : 0);
+	}
+}
@@ -0,0 +1,416 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A quick look at which frames an MP3's ID3v2 tag has, without building any tag objects.
+ * Only the frame headers are read: the first chunk of the tag is read in one go and any
+ * frames past it (usually after some album art) are found by hopping from header to
+ * header. This makes it cheap enough to run on every file before deciding whether the
+ * file is worth a full parse.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class Id3Scan extends Id3Header
+{
+	/**
+	 * How much of the tag is read up front.
+	 */
+	protected static final int CHUNK_SIZE = 64 * 1024;
+	
+	/**
+	 * One read buffer per thread, so scanning doesn't allocate for every file.
+	 */
+	protected static final ThreadLocal<ByteBuffer> CHUNKS = new ThreadLocal<ByteBuffer>()
+	{
+		@Override
+		protected ByteBuffer initialValue()
+		{
+			return ByteBuffer.allocate(CHUNK_SIZE);
+		}
+	};
+	
+	/**
+	 * The IDs of the frames found, packed into ints.
+	 */
+	protected int[] frames = new int[16];
+	
+	/**
+	 * The amount of frames found.
+	 */
+	protected int frameCount = 0;
+	
+	/**
+	 * Whether every frame header could be read. If not, the tag might have frames
+	 * we haven't seen.
+	 */
+	protected boolean complete = false;
+	
+	/**
+	 * Whether the ID3v1 tag has a comment.
+	 */
+	protected boolean id3v1Comment = false;
+	
+	/**
+	 * Scans the tags of the given file.
+	 * 
+	 * @param file An MP3 file
+	 * @return What was found
+	 * @throws IOException
+	 */
+	public static Id3Scan read(File file) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		
+		try
+		{
+			Id3Scan scan = new Id3Scan();
+			scan.readFrom(channel);
+			
+			return scan;
+		}
+		finally
+		{
+			channel.close();
+		}
+	}
+	
+	@Override
+	protected void readFrom(FileChannel channel) throws IOException
+	{
+		super.readFrom(channel);
+		
+		if (this.hasId3v2())
+		{
+			this.scanFrames(channel);
+		}
+		
+		if (this.hasId3v1())
+		{
+			this.scanId3v1(channel);
+		}
+	}
+	
+	/**
+	 * Walks the frame headers of the ID3v2 tag.
+	 */
+	protected void scanFrames(FileChannel channel) throws IOException
+	{
+		// Unsynchronising the whole tag scrambles the frame headers too, so leave that
+		// to the real parser (ID3v2.4 only unsynchronises frame contents)
+		if (this.version < 4 && (this.flags & FLAG_UNSYNCHRONISATION) != 0)
+		{
+			return;
+		}
+		
+		long end = Math.min(HEADER_SIZE + (long) this.bodySize, this.fileSize);
+		
+		ByteBuffer chunk = CHUNKS.get();
+		chunk.clear();
+		chunk.limit((int) Math.min(end, chunk.capacity()));
+		if (!readFully(channel, chunk, 0))
+		{
+			return;
+		}
+		
+		byte[] header = new byte[HEADER_SIZE];
+		long pos = HEADER_SIZE;
+		
+		if ((this.flags & FLAG_EXTENDED_HEADER) != 0)
+		{
+			if (!this.fetch(channel, chunk, pos, header, 4))
+			{
+				return;
+			}
+			
+			// ID3v2.3 doesn't count the size field itself, ID3v2.4 does and is syncsafe
+			pos += this.version == 3 ? 4 + readInt(header, 0, 4, false) : readInt(header, 0, 4, true);
+		}
+		
+		int idLength = this.version == 2 ? 3 : 4;
+		int headerLength = this.version == 2 ? 6 : 10;
+		
+		while (pos + headerLength <= end)
+		{
+			if (!this.fetch(channel, chunk, pos, header, headerLength))
+			{
+				return;
+			}
+			
+			// We've hit the padding. A zero byte in the middle of a frame looks just the
+			// same though, e.g. after jumping by a wrongly read size, so it only counts if
+			// it's zeros all the way to the end.
+			if (header[0] == 0)
+			{
+				if (!this.isPadding(channel, chunk, pos, end))
+				{
+					return;
+				}
+				break;
+			}
+			
+			int id = 0;
+			for (int i = 0; i < idLength; i++)
+			{
+				byte c = header[i];
+				
+				// Garbage, so we can't trust anything after this
+				if ((c < 'A' || c > 'Z') && (c < '0' || c > '9'))
+				{
+					return;
+				}
+				
+				id = (id << 8) | c;
+			}
+			this.addFrame(id);
+			
+			// Some ID3v2.4 writers forget to make the frame size syncsafe. A size without
+			// any high bits set reads fine either way, so go with whichever lands on the
+			// next frame.
+			boolean syncsafe = this.version == 4 && (header[4] & 0x80) == 0 && (header[5] & 0x80) == 0
+				&& (header[6] & 0x80) == 0 && (header[7] & 0x80) == 0;
+			long size = readInt(header, idLength, this.version == 2 ? 3 : 4, syncsafe);
+			
+			if (syncsafe)
+			{
+				long plain = readInt(header, idLength, 4, false);
+				
+				if (plain != size && !this.isFrameStart(channel, chunk, pos + headerLength + size, end, idLength)
+					&& this.isFrameStart(channel, chunk, pos + headerLength + plain, end, idLength))
+				{
+					size = plain;
+				}
+			}
+			
+			pos += headerLength + size;
+		}
+		
+		this.complete = true;
+	}
+	
+	/**
+	 * Whether the next frame could start at the given position: the end of the tag, a
+	 * frame ID or the padding.
+	 */
+	protected boolean isFrameStart(FileChannel channel, ByteBuffer chunk, long pos, long end, int idLength)
+		throws IOException
+	{
+		if (pos == end)
+		{
+			return true;
+		}
+		
+		byte[] id = new byte[idLength];
+		if (pos > end || pos + idLength > end || !this.fetch(channel, chunk, pos, id, idLength))
+		{
+			return pos < end && this.isPadding(channel, chunk, pos, end);
+		}
+		
+		if (id[0] == 0)
+		{
+			return this.isPadding(channel, chunk, pos, end);
+		}
+		
+		for (byte c : id)
+		{
+			if ((c < 'A' || c > 'Z') && (c < '0' || c > '9'))
+			{
+				return false;
+			}
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Whether every byte from the given position to the end of the tag is zero.
+	 */
+	protected boolean isPadding(FileChannel channel, ByteBuffer chunk, long pos, long end) throws IOException
+	{
+		byte[] bytes = chunk.array();
+		
+		for (; pos < end && pos < chunk.limit(); pos++)
+		{
+			if (bytes[(int) pos] != 0)
+			{
+				return false;
+			}
+		}
+		
+		// Padding past the chunk we've read, which is rare
+		byte[] block = new byte[4096];
+		
+		while (pos < end)
+		{
+			int length = (int) Math.min(block.length, end - pos);
+			if (!readFully(channel, ByteBuffer.wrap(block, 0, length), pos))
+			{
+				return false;
+			}
+			
+			for (int i = 0; i < length; i++)
+			{
+				if (block[i] != 0)
+				{
+					return false;
+				}
+			}
+			
+			pos += length;
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Checks whether the ID3v1 tag has a non-blank comment.
+	 */
+	protected void scanId3v1(FileChannel channel) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(ID3V1_SIZE);
+		if (!readFully(channel, buffer, this.fileSize - ID3V1_SIZE))
+		{
+			return;
+		}
+		
+		byte[] tag = buffer.array();
+		
+		// ID3v1.1 steals the last two bytes of the comment for the track number
+		int length = tag[125] == 0 && tag[126] != 0 ? 28 : 30;
+		
+		for (int i = 97; i < 97 + length; i++)
+		{
+			if (tag[i] != 0 && tag[i] != ' ')
+			{
+				this.id3v1Comment = true;
+				return;
+			}
+		}
+	}
+	
+	/**
+	 * Copies bytes at the given position of the file, from the chunk we've read if we
+	 * can and from the file otherwise.
+	 * 
+	 * @return False if the file ended first
+	 */
+	protected boolean fetch(FileChannel channel, ByteBuffer chunk, long pos, byte[] into, int length) throws IOException
+	{
+		if (pos + length <= chunk.limit())
+		{
+			System.arraycopy(chunk.array(), (int) pos, into, 0, length);
+			return true;
+		}
+		
+		return readFully(channel, ByteBuffer.wrap(into, 0, length), pos);
+	}
+	
+	/**
+	 * Reads a big endian number, optionally syncsafe (seven bits per byte).
+	 */
+	protected static long readInt(byte[] bytes, int offset, int length, boolean syncsafe)
+	{
+		long value = 0;
+		
+		for (int i = offset; i < offset + length; i++)
+		{
+			value = syncsafe ? (value << 7) | (bytes[i] & 0x7f) : (value << 8) | (bytes[i] & 0xff);
+		}
+		
+		return value;
+	}
+	
+	/**
+	 * Remembers a frame ID.
+	 */
+	protected void addFrame(int id)
+	{
+		if (this.frameCount == this.frames.length)
+		{
+			int[] grown = new int[this.frames.length * 2];
+			System.arraycopy(this.frames, 0, grown, 0, this.frameCount);
+			this.frames = grown;
+		}
+		
+		this.frames[this.frameCount++] = id;
+	}
+	
+	/**
+	 * Whether the ID3v2 tag has a frame with the given ID.
+	 * 
+	 * @param id A frame ID, e.g. "COMM" (or "COM" for ID3v2.2 tags)
+	 * @return True if the frame was found
+	 */
+	public boolean hasFrame(String id)
+	{
+		int packed = 0;
+		for (int i = 0; i < id.length(); i++)
+		{
+			packed = (packed << 8) | id.charAt(i);
+		}
+		
+		for (int i = 0; i < this.frameCount; i++)
+		{
+			if (this.frames[i] == packed)
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Whether the ID3v2 tag might have any of the given frames. If the tag couldn't be
+	 * scanned completely we can't rule anything out, so this errs on the side of yes.
+	 * 
+	 * @param ids Frame IDs
+	 * @return False only if there definitely aren't any of the frames
+	 */
+	public boolean mayHaveFrame(String... ids)
+	{
+		if (!this.hasId3v2())
+		{
+			return false;
+		}
+		
+		if (!this.complete)
+		{
+			return true;
+		}
+		
+		for (String id : ids)
+		{
+			if (this.hasFrame(id))
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	/**
+	 * Whether every frame header of the ID3v2 tag could be read.
+	 * 
+	 * @return True if the frame list is complete
+	 */
+	public boolean isComplete()
+	{
+		return this.complete;
+	}
+	
+	/**
+	 * Whether the ID3v1 tag has a comment that isn't blank.
+	 * 
+	 * @return True if there's a comment
+	 */
+	public boolean hasId3v1Comment()
+	{
+		return this.id3v1Comment;
+	}
+}
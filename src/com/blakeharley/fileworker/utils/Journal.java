@@ -0,0 +1,352 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps track of the files a run has finished, so a run that dies halfway can pick up
+ * where it left off instead of starting over. Unlike the manifest, which is only saved
+ * once the worker is done, the journal is written while the worker runs.
+ * 
+ * Finished files are collected in memory and a background thread appends them to the
+ * journal and syncs it to disk about once a second. Workers never wait on the disk, and
+ * at most the last second of work is lost in a crash. A line that was only half written
+ * when the JVM died is dropped when the journal is opened again.
+ * 
+ * The journal is a plain text file with a header line and then one absolute path per line.
+ * Once a run finishes, the journal has done its job and is deleted.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class Journal
+{
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	protected static final String HEADER = "# FileWorker journal v1";
+	
+	/**
+	 * How often the journal is synced to disk.
+	 */
+	protected static final long SYNC_MILLIS = 1000;
+	
+	/**
+	 * Where the journal lives on disk.
+	 */
+	protected File file;
+	
+	/**
+	 * The absolute paths of every finished file, including those of earlier runs.
+	 */
+	protected Set<String> done = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/**
+	 * The number of files finished by earlier runs.
+	 */
+	protected int resumed = 0;
+	
+	/**
+	 * Paths that haven't been written yet. Guarded by the journal.
+	 */
+	protected List<String> pending = new ArrayList<String>();
+	
+	protected FileChannel channel;
+	
+	protected Thread syncer;
+	
+	protected volatile boolean closed = false;
+	
+	/**
+	 * Why the last background sync failed, if it did.
+	 */
+	protected volatile IOException error;
+	
+	/**
+	 * Creates a journal stored in the given file. Nothing is read until open() is called.
+	 * 
+	 * @param file The journal file
+	 */
+	public Journal(File file)
+	{
+		this.file = file;
+	}
+	
+	/**
+	 * Creates and opens the journal a worker keeps next to the library it works on.
+	 * 
+	 * @param library The library directory
+	 * @param name The name of the worker
+	 * @return The open journal
+	 * @throws IOException
+	 */
+	public static Journal forLibrary(File library, String name) throws IOException
+	{
+		File dir = new File(library, ".fileworker");
+		Journal journal = new Journal(new File(dir, name.toLowerCase() + ".journal"));
+		journal.open();
+		
+		return journal;
+	}
+	
+	/**
+	 * The journal file.
+	 * 
+	 * @return A file that might not exist yet
+	 */
+	public File getFile()
+	{
+		return this.file;
+	}
+	
+	/**
+	 * Reads whatever an earlier run left behind and starts writing after it.
+	 * 
+	 * @throws IOException
+	 */
+	public void open() throws IOException
+	{
+		File parent = this.file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+		{
+			throw new IOException("Could not create " + parent.getAbsolutePath());
+		}
+		
+		long length = 0;
+		
+		if (this.file.isFile())
+		{
+			byte[] bytes = Files.readAllBytes(this.file.toPath());
+			
+			// Anything after the last line break was cut off by a crash
+			int end = bytes.length;
+			while (end > 0 && bytes[end - 1] != '\n')
+			{
+				end--;
+			}
+			
+			String[] lines = new String(bytes, 0, end, UTF8).split("\n");
+			if (lines.length > 0 && HEADER.equals(lines[0]))
+			{
+				for (int i = 1; i < lines.length; i++)
+				{
+					this.done.add(lines[i]);
+				}
+				
+				length = end;
+			}
+			
+			this.resumed = this.done.size();
+		}
+		
+		this.channel = FileChannel.open(this.file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		this.channel.truncate(length);
+		this.channel.position(length);
+		
+		if (length == 0)
+		{
+			this.channel.write(UTF8.encode(HEADER + "\n"));
+		}
+		
+		this.syncer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				syncPeriodically();
+			}
+		}, "Journal");
+		this.syncer.setDaemon(true);
+		this.syncer.start();
+	}
+	
+	/**
+	 * Checks whether a run already finished with this file. The file isn't opened. Once
+	 * the journal is closed nothing counts as done, since a file may have changed since.
+	 * 
+	 * @param file The file to check
+	 * @return True if the file can be skipped
+	 */
+	public boolean isDone(File file)
+	{
+		if (this.closed)
+		{
+			return false;
+		}
+		
+		return this.done.contains(file.getAbsolutePath());
+	}
+	
+	/**
+	 * The number of files finished by earlier runs, when the journal was opened.
+	 * 
+	 * @return Files already done
+	 */
+	public int getResumedCount()
+	{
+		return this.resumed;
+	}
+	
+	/**
+	 * Notes that a file is finished. It's written to disk with the next sync. Safe to
+	 * call from several threads at once.
+	 * 
+	 * @param file The finished file
+	 */
+	public void record(File file)
+	{
+		String path = file.getAbsolutePath();
+		
+		// E.g. a watcher working on new files after the run the journal was for
+		if (this.closed)
+		{
+			return;
+		}
+		
+		if (this.done.add(path))
+		{
+			synchronized (this)
+			{
+				this.pending.add(path);
+			}
+		}
+	}
+	
+	/**
+	 * Writes every finished file noted so far and waits until it's on disk.
+	 * 
+	 * @throws IOException
+	 */
+	public void sync() throws IOException
+	{
+		List<String> paths;
+		synchronized (this)
+		{
+			if (this.pending.isEmpty())
+			{
+				return;
+			}
+			
+			paths = this.pending;
+			this.pending = new ArrayList<String>();
+		}
+		
+		StringBuilder lines = new StringBuilder();
+		for (String path : paths)
+		{
+			lines.append(path).append('\n');
+		}
+		
+		// Only one sync writes at a time, so the lines of two batches never mix
+		synchronized (this.channel)
+		{
+			ByteBuffer buffer = UTF8.encode(lines.toString());
+			while (buffer.hasRemaining())
+			{
+				this.channel.write(buffer);
+			}
+			
+			// Only the lines and the file's length have to make it, not its timestamps
+			this.channel.force(false);
+		}
+	}
+	
+	/**
+	 * Writes what's left and closes the journal, keeping it for the next run.
+	 * 
+	 * @throws IOException If the journal couldn't be written, now or in the background
+	 */
+	public void close() throws IOException
+	{
+		if (this.channel == null || !this.channel.isOpen())
+		{
+			return;
+		}
+		
+		// Not interrupted, that would close the channel if it's in the middle of a write
+		synchronized (this)
+		{
+			this.closed = true;
+			this.notifyAll();
+		}
+		
+		try
+		{
+			this.syncer.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		try
+		{
+			this.sync();
+		}
+		finally
+		{
+			this.channel.close();
+		}
+		
+		if (this.error != null)
+		{
+			throw this.error;
+		}
+	}
+	
+	/**
+	 * Closes and deletes the journal, once the run it belongs to has finished.
+	 * 
+	 * @throws IOException
+	 */
+	public void delete() throws IOException
+	{
+		try
+		{
+			this.close();
+		}
+		finally
+		{
+			Files.deleteIfExists(this.file.toPath());
+		}
+	}
+	
+	/**
+	 * Syncs the journal once a second until it's closed.
+	 */
+	protected void syncPeriodically()
+	{
+		while (!this.closed)
+		{
+			synchronized (this)
+			{
+				try
+				{
+					this.wait(SYNC_MILLIS);
+				}
+				catch (InterruptedException e)
+				{
+					return;
+				}
+			}
+			
+			try
+			{
+				this.sync();
+			}
+			catch (IOException e)
+			{
+				// Reported when the journal is closed; the worker can carry on without it
+				this.error = e;
+			}
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Somewhere for the logger to put its lines. Sinks are only ever called from the
+ * logger's own thread, so they don't have to be thread safe, but they should hand
+ * off anything slow (like Swing) rather than do it right away.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public interface LogSink
+{
+	/**
+	 * Writes a batch of formatted lines, timestamps included and without line breaks.
+	 * 
+	 * @param lines The lines, oldest first
+	 * @throws IOException
+	 */
+	public void write(List<String> lines) throws IOException;
+	
+	/**
+	 * Makes sure everything written so far has actually left the sink.
+	 * 
+	 * @throws IOException
+	 */
+	public void flush() throws IOException;
+	
+	/**
+	 * Flushes and lets go of whatever the sink writes to.
+	 * 
+	 * @throws IOException
+	 */
+	public void close() throws IOException;
+}
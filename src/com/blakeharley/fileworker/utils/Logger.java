@@ -1,23 +1,123 @@
 package com.blakeharley.fileworker.utils;
 
+import java.io.IOException;
+import java.io.PrintStream;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.swing.JTextArea;
 
 /**
  * This "logger" is designed to communicate with the text area on the main
- * pane to communicate messages from the worker to the user.
+ * pane to communicate messages from the worker to the user. Without a pane,
+ * it writes to a stream instead, and it can write to a log file as well.
+ * 
+ * Logging only puts the message in a queue; a background thread formats the
+ * lines and hands them to the sinks in batches. Workers never wait on Swing
+ * or the disk. If the queue fills up, new lines are dropped and counted
+ * rather than holding up the worker.
  * 
  * @author Blake Harley <blake@blakeharley.com>
  */
 public class Logger
 {
 	/**
-	 * The text area on the main pane.
+	 * How many lines can wait to be written before new ones are dropped.
+	 */
+	protected static final int CAPACITY = 8192;
+	
+	/**
+	 * The most lines handed to the sinks at once.
+	 */
+	protected static final int BATCH_SIZE = 256;
+	
+	/**
+	 * A logged message that hasn't been written yet.
+	 */
+	protected static class Entry
+	{
+		final long time;
+		final String prefix;
+		final Object value;
+		final CountDownLatch flushed;
+		
+		Entry(long time, String prefix, Object value, CountDownLatch flushed)
+		{
+			this.time = time;
+			this.prefix = prefix;
+			this.value = value;
+			this.flushed = flushed;
+		}
+	}
+	
+	/**
+	 * A formatted timestamp and the second it belongs to.
+	 */
+	protected static class Stamp
+	{
+		final long second;
+		final String text;
+		
+		Stamp(long second, String text)
+		{
+			this.second = second;
+			this.text = text;
+		}
+	}
+	
+	/**
+	 * Where the lines go.
+	 */
+	protected List<LogSink> sinks = new CopyOnWriteArrayList<LogSink>();
+	
+	protected ArrayBlockingQueue<Entry> queue = new ArrayBlockingQueue<Entry>(CAPACITY);
+	
+	/**
+	 * Lines dropped because the queue was full and not yet reported.
 	 */
-	protected JTextArea area;
+	protected AtomicLong dropped = new AtomicLong();
+	
+	/**
+	 * The timestamp of the last line. Lines come in much faster than once a second,
+	 * so this saves formatting the time for almost all of them.
+	 */
+	protected volatile Stamp stamp = new Stamp(-1, "");
+	
+	protected Thread writer;
+	
+	protected volatile boolean closed = false;
+	
+	/**
+	 * Creates a logger that writes to the given sinks.
+	 * 
+	 * @param sinks Where the lines go
+	 */
+	public Logger(LogSink... sinks)
+	{
+		for (LogSink sink : sinks)
+		{
+			this.sinks.add(sink);
+		}
+		
+		this.writer = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				drain();
+			}
+		}, "Logger");
+		this.writer.setDaemon(true);
+		this.writer.start();
+	}
 	
 	/**
 	 * Creates a new instance of this class
@@ -26,7 +126,27 @@ public class Logger
 	 */
 	public Logger(JTextArea area)
 	{
-		this.area = area;
+		this(new TextAreaLogSink(area));
+	}
+	
+	/**
+	 * Creates a logger for running without a window.
+	 * 
+	 * @param out The stream to write to, e.g. System.err
+	 */
+	public Logger(PrintStream out)
+	{
+		this(new StreamLogSink(out));
+	}
+	
+	/**
+	 * Adds somewhere else for the lines to go, e.g. a log file.
+	 * 
+	 * @param sink The sink to add
+	 */
+	public void addSink(LogSink sink)
+	{
+		this.sinks.add(sink);
 	}
 	
 	/**
@@ -37,19 +157,234 @@ public class Logger
 	 */
 	public void log(String str)
 	{
-		this.area.append(this.getTimestamp() + str + "\n");
+		this.enqueue(new Entry(System.currentTimeMillis(), str, null, null));
 	}
 	
 	/**
-	 * Creates the timestamp string that gets appended to log events.
+	 * Logs the given prefix followed by the value. Turning the value into a string and
+	 * joining the two is left to the logger's thread, so the caller doesn't pay for it.
 	 * 
+	 * @param prefix The start of the event
+	 * @param value Anything, e.g. a file
+	 */
+	public void log(String prefix, Object value)
+	{
+		this.enqueue(new Entry(System.currentTimeMillis(), prefix, value, null));
+	}
+	
+	/**
+	 * Waits until everything logged so far has been written.
+	 */
+	public void flush()
+	{
+		if (this.closed)
+		{
+			return;
+		}
+		
+		CountDownLatch flushed = new CountDownLatch(1);
+		
+		try
+		{
+			// Unlike normal lines, this has to get in
+			Entry entry = new Entry(0, null, null, flushed);
+			while (!this.queue.offer(entry, 1, TimeUnit.SECONDS))
+			{
+				if (!this.writer.isAlive())
+				{
+					return;
+				}
+			}
+			
+			// Nobody is left to count it down if the thread died anyway
+			while (!flushed.await(1, TimeUnit.SECONDS))
+			{
+				if (!this.writer.isAlive())
+				{
+					return;
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Writes everything logged so far, stops the logger's thread and closes the sinks.
+	 * Anything logged afterwards is ignored.
+	 */
+	public void close()
+	{
+		this.flush();
+		this.closed = true;
+		this.writer.interrupt();
+		
+		try
+		{
+			this.writer.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		
+		for (LogSink sink : this.sinks)
+		{
+			try
+			{
+				sink.close();
+			}
+			catch (IOException e)
+			{
+				// Nowhere left to complain
+			}
+		}
+	}
+	
+	/**
+	 * Queues an entry without ever waiting.
+	 */
+	protected void enqueue(Entry entry)
+	{
+		if (!this.closed && !this.queue.offer(entry))
+		{
+			this.dropped.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Takes entries off the queue and writes them in batches until the logger is closed.
+	 */
+	protected void drain()
+	{
+		List<Entry> entries = new ArrayList<Entry>(BATCH_SIZE);
+		List<String> lines = new ArrayList<String>(BATCH_SIZE);
+		
+		while (!this.closed)
+		{
+			try
+			{
+				entries.add(this.queue.take());
+			}
+			catch (InterruptedException e)
+			{
+				break;
+			}
+			this.queue.drainTo(entries, BATCH_SIZE - 1);
+			
+			long drops = this.dropped.getAndSet(0);
+			if (drops > 0)
+			{
+				lines.add(this.getTimestamp(System.currentTimeMillis()) + drops + " log lines were dropped.");
+			}
+			
+			try
+			{
+				for (Entry entry : entries)
+				{
+					if (entry.flushed == null)
+					{
+						lines.add(this.getTimestamp(entry.time) + this.format(entry));
+					}
+				}
+				
+				this.write(lines, entries);
+			}
+			finally
+			{
+				// Whatever happened, nobody should be left waiting on a flush
+				for (Entry entry : entries)
+				{
+					if (entry.flushed != null)
+					{
+						entry.flushed.countDown();
+					}
+				}
+				
+				entries.clear();
+				lines.clear();
+			}
+		}
+	}
+	
+	/**
+	 * Joins an entry's prefix and value.
+	 */
+	protected String format(Entry entry)
+	{
+		if (entry.value == null)
+		{
+			return entry.prefix;
+		}
+		
+		try
+		{
+			return entry.prefix + entry.value;
+		}
+		catch (RuntimeException e)
+		{
+			// A broken toString() only costs us the value
+			return entry.prefix + entry.value.getClass().getName();
+		}
+	}
+	
+	/**
+	 * Hands a batch to the sinks, flushing them if anyone is waiting on a flush.
+	 */
+	protected void write(List<String> lines, List<Entry> entries)
+	{
+		boolean flush = false;
+		for (Entry entry : entries)
+		{
+			flush |= entry.flushed != null;
+		}
+		
+		for (LogSink sink : this.sinks)
+		{
+			try
+			{
+				if (!lines.isEmpty())
+				{
+					sink.write(lines);
+				}
+				
+				if (flush)
+				{
+					sink.flush();
+				}
+			}
+			catch (IOException e)
+			{
+				// A broken log file shouldn't take the worker down with it
+			}
+			catch (RuntimeException e)
+			{
+				// Nor should a broken sink, or the logger's thread along with the other sinks
+			}
+		}
+	}
+	
+	/**
+	 * Creates the timestamp string that gets appended to log events. The string
+	 * is only formatted once per second.
+	 * 
+	 * @param time The time of the event in milliseconds
 	 * @return The timestamp
 	 */
-	protected String getTimestamp()
+	protected String getTimestamp(long time)
 	{
-		DateFormat format = new SimpleDateFormat("[HH:mm:ss] ");
-		Date date = new Date();
+		long second = time / 1000;
+		Stamp current = this.stamp;
+		
+		if (current.second != second)
+		{
+			DateFormat format = new SimpleDateFormat("[HH:mm:ss] ");
+			current = new Stamp(second, format.format(new Date(second * 1000)));
+			this.stamp = current;
+		}
 		
-		return format.format(date);
+		return current.text;
 	}
 }
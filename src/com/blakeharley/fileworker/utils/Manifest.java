@@ -0,0 +1,367 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers what a worker saw during its last run so the next run can skip anything
+ * that hasn't changed since.
+ * 
+ * Directories are stored with their modification time and the names of their matching
+ * files and subdirectories. As long as a directory's modification time is unchanged,
+ * Cull can reuse those names instead of listing it again. Files are stored with their
+ * size, modification time and the outcome the worker recorded for them.
+ * 
+ * The manifest is a plain text file, one entry per line:
+ * 
+ *   D  mtime  path                        A directory
+ *   d  name                               A subdirectory of the directory above
+ *   f  name                               A file of the directory above, not yet worked on
+ *   F  size  mtime  outcome  name         A file of the directory above, with its outcome
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class Manifest
+{
+	/**
+	 * What happened to a file the last time a worker touched it.
+	 */
+	public enum Outcome
+	{
+		/**
+		 * The worker has nothing left to do with the file as it stands.
+		 */
+		DONE,
+		
+		/**
+		 * The worker failed and should try again next time.
+		 */
+		FAILED
+	}
+	
+	/**
+	 * A directory as it was last listed.
+	 */
+	public static class DirectoryEntry
+	{
+		public final long modified;
+		public final String[] files;
+		public final String[] directories;
+		
+		public DirectoryEntry(long modified, String[] files, String[] directories)
+		{
+			this.modified = modified;
+			this.files = files;
+			this.directories = directories;
+		}
+	}
+	
+	/**
+	 * A file as it was when its outcome was recorded.
+	 */
+	public static class FileEntry
+	{
+		public final long size;
+		public final long modified;
+		public final Outcome outcome;
+		
+		public FileEntry(long size, long modified, Outcome outcome)
+		{
+			this.size = size;
+			this.modified = modified;
+			this.outcome = outcome;
+		}
+	}
+	
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	protected static final String HEADER = "# FileWorker manifest v1";
+	
+	/**
+	 * Where the manifest lives on disk.
+	 */
+	protected File file;
+	
+	/**
+	 * Directories keyed by absolute path.
+	 */
+	protected Map<String, DirectoryEntry> directories = new ConcurrentHashMap<String, DirectoryEntry>();
+	
+	/**
+	 * Files keyed by absolute path.
+	 */
+	protected Map<String, FileEntry> files = new ConcurrentHashMap<String, FileEntry>();
+	
+	/**
+	 * Creates a manifest stored in the given file. Nothing is read until load() is called.
+	 * 
+	 * @param file The manifest file
+	 */
+	public Manifest(File file)
+	{
+		this.file = file;
+	}
+	
+	/**
+	 * Creates and loads the manifest a worker keeps next to the library it works on.
+	 * 
+	 * @param library The library directory
+	 * @param name The name of the worker
+	 * @return The loaded manifest
+	 * @throws IOException
+	 */
+	public static Manifest forLibrary(File library, String name) throws IOException
+	{
+		File dir = new File(library, ".fileworker");
+		Manifest manifest = new Manifest(new File(dir, name.toLowerCase() + ".manifest"));
+		manifest.load();
+		
+		return manifest;
+	}
+	
+	/**
+	 * The manifest file.
+	 * 
+	 * @return A file that might not exist yet
+	 */
+	public File getFile()
+	{
+		return this.file;
+	}
+	
+	/**
+	 * Gets the directory entry for the given directory, but only if it hasn't been
+	 * modified since it was recorded.
+	 * 
+	 * @param dir The directory
+	 * @param modified The current modification time of the directory
+	 * @return The entry, or null if the directory has to be listed again
+	 */
+	public DirectoryEntry getDirectory(File dir, long modified)
+	{
+		DirectoryEntry entry = this.directories.get(dir.getAbsolutePath());
+		
+		if (entry == null || entry.modified != modified)
+		{
+			return null;
+		}
+		
+		return entry;
+	}
+	
+	/**
+	 * Records the matching contents of a freshly listed directory.
+	 * 
+	 * @param dir The directory
+	 * @param modified The modification time of the directory before it was listed
+	 * @param files The names of the matching files
+	 * @param directories The names of the subdirectories
+	 */
+	public void putDirectory(File dir, long modified, String[] files, String[] directories)
+	{
+		this.directories.put(dir.getAbsolutePath(), new DirectoryEntry(modified, files, directories));
+	}
+	
+	/**
+	 * Checks whether the worker already finished with the given file and the file hasn't
+	 * changed since. This costs a single stat and never opens the file.
+	 * 
+	 * @param file The file to check
+	 * @return True if the file can be skipped
+	 */
+	public boolean isDone(File file)
+	{
+		FileEntry entry = this.files.get(file.getAbsolutePath());
+		
+		if (entry == null || entry.outcome != Outcome.DONE)
+		{
+			return false;
+		}
+		
+		try
+		{
+			BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			
+			return attrs.size() == entry.size && attrs.lastModifiedTime().toMillis() == entry.modified;
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Records the outcome for the given file along with its current size and modification
+	 * time. Call this after the worker is done writing to the file.
+	 * 
+	 * @param file The file
+	 * @param outcome What happened to it
+	 */
+	public void putFile(File file, Outcome outcome)
+	{
+		try
+		{
+			BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			this.files.put(file.getAbsolutePath(), new FileEntry(attrs.size(), attrs.lastModifiedTime().toMillis(), outcome));
+		}
+		catch (IOException e)
+		{
+			this.files.remove(file.getAbsolutePath());
+		}
+	}
+	
+	/**
+	 * Reads the manifest from disk. A missing file leaves the manifest empty.
+	 * 
+	 * @throws IOException
+	 */
+	public void load() throws IOException
+	{
+		this.directories.clear();
+		this.files.clear();
+		
+		if (!this.file.isFile())
+		{
+			return;
+		}
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), UTF8));
+		
+		try
+		{
+			if (!HEADER.equals(reader.readLine()))
+			{
+				// Unknown format, start over
+				return;
+			}
+			
+			String dir = null;
+			long modified = 0;
+			ArrayList<String> dirFiles = new ArrayList<String>();
+			ArrayList<String> dirDirs = new ArrayList<String>();
+			
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] parts = line.split("\t", 5);
+				
+				switch (parts[0].charAt(0))
+				{
+					case 'D':
+						this.putLoadedDirectory(dir, modified, dirFiles, dirDirs);
+						modified = Long.parseLong(parts[1]);
+						dir = parts[2];
+						break;
+					case 'd':
+						dirDirs.add(parts[1]);
+						break;
+					case 'f':
+						dirFiles.add(parts[1]);
+						break;
+					case 'F':
+						dirFiles.add(parts[4]);
+						this.files.put(new File(dir, parts[4]).getAbsolutePath(),
+							new FileEntry(Long.parseLong(parts[1]), Long.parseLong(parts[2]), Outcome.valueOf(parts[3])));
+						break;
+				}
+			}
+			
+			this.putLoadedDirectory(dir, modified, dirFiles, dirDirs);
+		}
+		catch (RuntimeException e)
+		{
+			// A mangled manifest only costs us a full run
+			this.directories.clear();
+			this.files.clear();
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Stores a directory that has been read back from disk and clears the name lists.
+	 */
+	protected void putLoadedDirectory(String dir, long modified, ArrayList<String> files, ArrayList<String> dirs)
+	{
+		if (dir != null)
+		{
+			this.directories.put(dir, new DirectoryEntry(modified, files.toArray(new String[files.size()]), dirs.toArray(new String[dirs.size()])));
+		}
+		
+		files.clear();
+		dirs.clear();
+	}
+	
+	/**
+	 * Writes the manifest to disk. The old manifest is only replaced once the new one has
+	 * been written completely. Files that are no longer listed in any directory are dropped.
+	 * 
+	 * @throws IOException
+	 */
+	public void save() throws IOException
+	{
+		File parent = this.file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+		{
+			throw new IOException("Could not create " + parent.getAbsolutePath());
+		}
+		
+		File temp = new File(parent, this.file.getName() + ".tmp");
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8));
+		
+		try
+		{
+			writer.write(HEADER);
+			writer.newLine();
+			
+			for (Map.Entry<String, DirectoryEntry> item : this.directories.entrySet())
+			{
+				DirectoryEntry dir = item.getValue();
+				writer.write("D\t" + dir.modified + "\t" + item.getKey());
+				writer.newLine();
+				
+				for (String name : dir.directories)
+				{
+					writer.write("d\t" + name);
+					writer.newLine();
+				}
+				
+				for (String name : dir.files)
+				{
+					FileEntry entry = this.files.get(new File(item.getKey(), name).getAbsolutePath());
+					
+					if (entry == null)
+					{
+						writer.write("f\t" + name);
+					}
+					else
+					{
+						writer.write("F\t" + entry.size + "\t" + entry.modified + "\t" + entry.outcome + "\t" + name);
+					}
+					writer.newLine();
+				}
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+		
+		Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+}
@@ -0,0 +1,146 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.List;
+
+/**
+ * Writes log lines to a file, starting a new one once it gets too big. Old files are
+ * kept next to it as name.1, name.2 and so on, with the highest number the oldest.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class RollingFileLogSink implements LogSink
+{
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	/**
+	 * The file being written to.
+	 */
+	protected File file;
+	
+	/**
+	 * How big a file may get before we move on to a new one, in bytes.
+	 */
+	protected long maxSize;
+	
+	/**
+	 * How many old files to keep.
+	 */
+	protected int keep;
+	
+	protected Writer writer;
+	
+	/**
+	 * Roughly how big the current file is. Counted in characters, which is close enough.
+	 */
+	protected long size;
+	
+	/**
+	 * Creates a sink that appends to the given file.
+	 * 
+	 * @param file The log file
+	 * @param maxSize How big a file may get in bytes
+	 * @param keep How many old files to keep
+	 * @throws IOException
+	 */
+	public RollingFileLogSink(File file, long maxSize, int keep) throws IOException
+	{
+		if (maxSize < 1 || keep < 0)
+		{
+			throw new IllegalArgumentException("Size must be positive and keep can't be negative");
+		}
+		
+		this.file = file.getAbsoluteFile();
+		this.maxSize = maxSize;
+		this.keep = keep;
+		this.open();
+	}
+	
+	/**
+	 * Creates a sink that keeps up to five 10MB files.
+	 * 
+	 * @param file The log file
+	 * @throws IOException
+	 */
+	public RollingFileLogSink(File file) throws IOException
+	{
+		this(file, 10 * 1024 * 1024, 5);
+	}
+	
+	@Override
+	public void write(List<String> lines) throws IOException
+	{
+		for (String line : lines)
+		{
+			if (this.size >= this.maxSize)
+			{
+				this.roll();
+			}
+			
+			this.writer.write(line);
+			this.writer.write(System.lineSeparator());
+			this.size += line.length() + 1;
+		}
+		
+		// Once per batch, so a crash loses at most the lines still in the logger's queue
+		this.writer.flush();
+	}
+	
+	@Override
+	public void flush() throws IOException
+	{
+		this.writer.flush();
+	}
+	
+	@Override
+	public void close() throws IOException
+	{
+		this.writer.close();
+	}
+	
+	/**
+	 * Opens the log file for appending.
+	 */
+	protected void open() throws IOException
+	{
+		File parent = this.file.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+		{
+			throw new IOException("Could not create " + parent.getAbsolutePath());
+		}
+		
+		this.size = this.file.length();
+		this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(this.file, true), UTF8));
+	}
+	
+	/**
+	 * Shifts the old files up by one and starts a new log file.
+	 */
+	protected void roll() throws IOException
+	{
+		this.writer.close();
+		
+		new File(this.file.getPath() + "." + this.keep).delete();
+		for (int i = this.keep - 1; i >= 1; i--)
+		{
+			new File(this.file.getPath() + "." + i).renameTo(new File(this.file.getPath() + "." + (i + 1)));
+		}
+		
+		if (this.keep > 0)
+		{
+			this.file.renameTo(new File(this.file.getPath() + ".1"));
+		}
+		else
+		{
+			this.file.delete();
+		}
+		
+		this.open();
+	}
+}
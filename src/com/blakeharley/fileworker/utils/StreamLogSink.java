@@ -0,0 +1,48 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.PrintStream;
+import java.util.List;
+
+/**
+ * Writes log lines to a stream such as System.out or System.err.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class StreamLogSink implements LogSink
+{
+	protected PrintStream out;
+	
+	/**
+	 * @param out The stream to write to
+	 */
+	public StreamLogSink(PrintStream out)
+	{
+		this.out = out;
+	}
+	
+	@Override
+	public void write(List<String> lines)
+	{
+		StringBuilder batch = new StringBuilder();
+		for (String line : lines)
+		{
+			batch.append(line).append(System.lineSeparator());
+		}
+		
+		this.out.print(batch);
+		this.out.flush();
+	}
+	
+	@Override
+	public void flush()
+	{
+		this.out.flush();
+	}
+	
+	@Override
+	public void close()
+	{
+		// Not ours to close
+		this.out.flush();
+	}
+}
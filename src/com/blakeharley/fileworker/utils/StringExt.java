@@ -1,6 +1,8 @@
 package com.blakeharley.fileworker.utils;
 
 import java.text.Normalizer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * StringExt is an "extension" to the Java String class. The reason I say
@@ -10,6 +12,10 @@ import java.text.Normalizer;
  * This string will simply provide some nifty functionality that would be
  * nice for cleaning up those pesky ID3v2 tags.
  * 
+ * The same album and artist names come up for every track, so results are
+ * remembered. The clean up itself is a single scan over the string rather
+ * than a regex per rule, but gives exactly the same results.
+ * 
  * @author Blake
  */
 public class StringExt
@@ -39,23 +45,33 @@ public class StringExt
 		return this.delegate.length();
 	}
 	
+	/**
+	 * The articles that are lowered, in title case.
+	 */
+	protected static final String[] ARTICLES = { "A", "An", "The", "Of", "In", "To", "And", "But", "Or", "Nor", "For" };
+	
+	/**
+	 * The most results each memo holds before it's cleared.
+	 */
+	protected static final int MEMO_SIZE = 4096;
+	
+	/**
+	 * What articlesToLower() made of every string it was given lately.
+	 */
+	protected static final Map<String, String> ARTICLES_MEMO = new ConcurrentHashMap<String, String>();
+	
+	/**
+	 * What prepareFileName() made of every string it was given lately.
+	 */
+	protected static final Map<String, String> FILE_NAME_MEMO = new ConcurrentHashMap<String, String>();
+	
 	/**
 	 * Converts articles in the string to their lower case forms. Doesn't
 	 * touch articles at the beginning of the string.
 	 */
 	public void articlesToLower()
 	{
-		this.delegate = this.delegate.replaceAll(" A ", " a ");
-		this.delegate = this.delegate.replaceAll(" An ", " an ");
-		this.delegate = this.delegate.replaceAll(" The ", " the ");
-		this.delegate = this.delegate.replaceAll(" Of ", " of ");
-		this.delegate = this.delegate.replaceAll(" In ", " in ");
-		this.delegate = this.delegate.replaceAll(" To ", " to ");
-		this.delegate = this.delegate.replaceAll(" And ", " and ");
-		this.delegate = this.delegate.replaceAll(" But ", " but ");
-		this.delegate = this.delegate.replaceAll(" Or ", " or ");
-		this.delegate = this.delegate.replaceAll(" Nor ", " nor ");
-		this.delegate = this.delegate.replaceAll(" For ", " for ");
+		this.delegate = memo(ARTICLES_MEMO, this.delegate, false);
 	}
 	
 	/**
@@ -65,19 +81,188 @@ public class StringExt
 	 */
 	public void prepareFileName()
 	{
-		// Characters not allowed:
-		// \ / : ? " < > |
+		this.delegate = memo(FILE_NAME_MEMO, this.delegate, true);
+	}
+	
+	/**
+	 * Looks up a result in the given memo, working it out if it isn't there.
+	 */
+	protected static String memo(Map<String, String> memo, String str, boolean fileName)
+	{
+		String result = memo.get(str);
 		
-		// Removes:
-		//  * Illegal characters
-		//  * Things wrapped in []
-		this.delegate = this.delegate.replaceAll("(?:[\\/:<>\\?]| ?\\[.*?\\])", "");
+		if (result == null)
+		{
+			result = fileName ? toFileName(str) : lowerArticles(str);
+			
+			// Crude, but a library only has so many albums and artists
+			if (memo.size() >= MEMO_SIZE)
+			{
+				memo.clear();
+			}
+			memo.put(str, result);
+		}
 		
-		// Remove duplicate spacing
-		this.delegate = this.delegate.replaceAll("  ", " ");
+		return result;
+	}
+	
+	/**
+	 * Lowers every article that has a space on both sides. This used to be a replaceAll()
+	 * per article, and each of those skips a match whose leading space was the trailing
+	 * space of its previous match (" A A " only loses the first "A"), so we keep track of
+	 * where each article last matched to do the same.
+	 */
+	protected static String lowerArticles(String str)
+	{
+		char[] chars = null;
+		int[] lastEnd = new int[ARTICLES.length];
+		int length = str.length();
+		
+		for (int i = 0; i < length; i++)
+		{
+			if (str.charAt(i) != ' ')
+			{
+				continue;
+			}
+			
+			for (int a = 0; a < ARTICLES.length; a++)
+			{
+				String article = ARTICLES[a];
+				int end = i + 1 + article.length();
+				
+				if (end < length && str.charAt(end) == ' ' && str.startsWith(article, i + 1))
+				{
+					if (i >= lastEnd[a])
+					{
+						if (chars == null)
+						{
+							chars = str.toCharArray();
+						}
+						chars[i + 1] = Character.toLowerCase(chars[i + 1]);
+						lastEnd[a] = end + 1;
+					}
+					
+					// A word can only be one article
+					break;
+				}
+			}
+		}
+		
+		return chars == null ? str : new String(chars);
+	}
+	
+	/**
+	 * Does what prepareFileName() describes, in three steps over the string:
+	 * 
+	 *  1. Remove / : < > ? and anything wrapped in [], along with a single space
+	 *     in front of it. Like the old regex, a bracket only counts if it's closed
+	 *     on the same line.
+	 *  2. Halve runs of spaces, rounding up (the old replaceAll("  ", " ")).
+	 *  3. Decompose accented characters and drop anything that isn't ASCII.
+	 */
+	protected static String toFileName(String str)
+	{
+		int length = str.length();
+		StringBuilder out = new StringBuilder(length);
+		
+		for (int i = 0; i < length; i++)
+		{
+			char c = str.charAt(i);
+			
+			if (c == '/' || c == ':' || c == '<' || c == '>' || c == '?')
+			{
+				continue;
+			}
+			
+			int open = c == ' ' && i + 1 < length && str.charAt(i + 1) == '[' ? i + 1 : c == '[' ? i : -1;
+			if (open >= 0)
+			{
+				int close = findClosingBracket(str, open + 1);
+				
+				if (close >= 0)
+				{
+					i = close;
+					continue;
+				}
+			}
+			
+			out.append(c);
+		}
+		
+		// Halve runs of spaces
+		int spaces = 0;
+		int kept = 0;
+		for (int i = 0; i < out.length(); i++)
+		{
+			char c = out.charAt(i);
+			
+			if (c == ' ')
+			{
+				spaces++;
+				if (spaces % 2 == 0)
+				{
+					continue;
+				}
+			}
+			else
+			{
+				spaces = 0;
+			}
+			
+			out.setCharAt(kept++, c);
+		}
+		out.setLength(kept);
+		
+		// Only strings with accents and such need normalising
+		boolean ascii = true;
+		for (int i = 0; i < kept && ascii; i++)
+		{
+			ascii = out.charAt(i) < 128;
+		}
+		
+		if (ascii)
+		{
+			return out.toString();
+		}
+		
+		String decomposed = Normalizer.normalize(out, Normalizer.Form.NFD);
+		out.setLength(0);
+		for (int i = 0; i < decomposed.length(); i++)
+		{
+			char c = decomposed.charAt(i);
+			
+			if (c < 128)
+			{
+				out.append(c);
+			}
+		}
+		
+		return out.toString();
+	}
+	
+	/**
+	 * Finds the first ] from the given position, as long as there's no line break on the way.
+	 * 
+	 * @return The position of the ], or -1
+	 */
+	protected static int findClosingBracket(String str, int from)
+	{
+		for (int i = from; i < str.length(); i++)
+		{
+			char c = str.charAt(i);
+			
+			if (c == ']')
+			{
+				return i;
+			}
+			
+			if (c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029')
+			{
+				return -1;
+			}
+		}
 		
-		// Remove non-ASCII characters with accents and stuffs
-		this.delegate = Normalizer.normalize(this.delegate, Normalizer.Form.NFD).replaceAll("[^\\p{ASCII}]", "");
+		return -1;
 	}
 	
 	public boolean equals(StringExt str)
@@ -0,0 +1,534 @@
+package com.blakeharley.fileworker.utils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jaudiotagger.tag.FieldKey;
+import org.jaudiotagger.tag.Tag;
+
+/**
+ * The common tag fields of every file in a library, so they can be looked up without
+ * opening the files. An entry only counts as long as the file's size and modification
+ * time are the same as when it was indexed.
+ * 
+ * Artists, albums, years and genres are shared by many tracks, so each distinct value is
+ * only kept in memory once.
+ * 
+ * The index is a plain text file, one file per line, with tabs, line breaks and
+ * backslashes in the values escaped:
+ * 
+ *   size  mtime  path  album artist  artist  album  title  disc  track  year  genre
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class TagIndex
+{
+	/**
+	 * The fields that are indexed, in the order they're stored.
+	 */
+	public static final FieldKey[] FIELDS = {
+		FieldKey.ALBUM_ARTIST, FieldKey.ARTIST, FieldKey.ALBUM, FieldKey.TITLE,
+		FieldKey.DISC_NO, FieldKey.TRACK, FieldKey.YEAR, FieldKey.GENRE
+	};
+	
+	/**
+	 * The indexed tag of a single file.
+	 */
+	public static class Entry
+	{
+		public final File file;
+		public final long size;
+		public final long modified;
+		
+		/**
+		 * The values of the fields, in the same order as FIELDS.
+		 */
+		protected final String[] values;
+		
+		public Entry(File file, long size, long modified, String[] values)
+		{
+			this.file = file;
+			this.size = size;
+			this.modified = modified;
+			this.values = values;
+		}
+		
+		/**
+		 * Gets the value of a field, the same as Tag.getFirst() would.
+		 * 
+		 * @param key One of the indexed fields
+		 * @return The value, or an empty string if the tag doesn't have it
+		 */
+		public String getFirst(FieldKey key)
+		{
+			return this.values[checkIndexed(key)];
+		}
+	}
+	
+	/**
+	 * Decides which entries a query returns.
+	 */
+	public interface Query
+	{
+		public boolean matches(Entry entry);
+	}
+	
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	protected static final String HEADER = "# FileWorker tag index v1";
+	
+	/**
+	 * Where the index lives on disk.
+	 */
+	protected File file;
+	
+	/**
+	 * Entries keyed by absolute path.
+	 */
+	protected Map<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+	
+	/**
+	 * One copy of every value in the index.
+	 */
+	protected Map<String, String> values = new ConcurrentHashMap<String, String>();
+	
+	/**
+	 * The paths looked at since the last refresh started.
+	 */
+	protected Set<String> seen = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	
+	/**
+	 * Creates an index stored in the given file. Nothing is read until load() is called.
+	 * 
+	 * @param file The index file
+	 */
+	public TagIndex(File file)
+	{
+		this.file = file;
+	}
+	
+	/**
+	 * Creates and loads the index kept next to the given library.
+	 * 
+	 * @param library The library directory
+	 * @return The loaded index
+	 * @throws IOException
+	 */
+	public static TagIndex forLibrary(File library) throws IOException
+	{
+		TagIndex index = new TagIndex(new File(new File(library, ".fileworker"), "tags"));
+		index.load();
+		
+		return index;
+	}
+	
+	/**
+	 * The index file.
+	 * 
+	 * @return A file that might not exist yet
+	 */
+	public File getFile()
+	{
+		return this.file;
+	}
+	
+	/**
+	 * Gets the indexed tag of the given file, but only if the file hasn't changed since.
+	 * This costs a single stat and never opens the file.
+	 * 
+	 * @param file The file
+	 * @return The entry, or null if the file has to be indexed again
+	 */
+	public Entry get(File file)
+	{
+		String path = file.getAbsolutePath();
+		Entry entry = this.entries.get(path);
+		this.seen.add(path);
+		
+		if (entry == null)
+		{
+			return null;
+		}
+		
+		try
+		{
+			BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			
+			if (attrs.size() == entry.size && attrs.lastModifiedTime().toMillis() == entry.modified)
+			{
+				return entry;
+			}
+		}
+		catch (IOException e)
+		{
+			// Gone, or can't be read; either way the entry is no good
+		}
+		
+		return null;
+	}
+	
+	/**
+	 * Indexes the tag of the given file. Call this right after reading the tag, so the
+	 * file's current size and modification time are picked up. Safe to call from several
+	 * threads at once.
+	 * 
+	 * @param file The file
+	 * @param tag Its tag
+	 */
+	public void put(File file, Tag tag)
+	{
+		String[] values = new String[FIELDS.length];
+		for (int i = 0; i < FIELDS.length; i++)
+		{
+			values[i] = this.intern(tag.getFirst(FIELDS[i]));
+		}
+		
+		try
+		{
+			BasicFileAttributes attrs = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+			File absolute = file.getAbsoluteFile();
+			
+			this.entries.put(absolute.getPath(), new Entry(absolute, attrs.size(), attrs.lastModifiedTime().toMillis(), values));
+			this.seen.add(absolute.getPath());
+		}
+		catch (IOException e)
+		{
+			// Nothing to index for a file that can't be looked at
+		}
+	}
+	
+	/**
+	 * Starts a refresh. Every file still in the library should then be looked up with
+	 * get() or indexed with put(), after which finishRefresh() drops everything else.
+	 */
+	public void startRefresh()
+	{
+		this.seen.clear();
+	}
+	
+	/**
+	 * Drops the files that weren't looked at since the refresh started, since they
+	 * aren't in the library anymore.
+	 * 
+	 * @return The number of files dropped
+	 */
+	public int finishRefresh()
+	{
+		int dropped = 0;
+		
+		Iterator<String> it = this.entries.keySet().iterator();
+		while (it.hasNext())
+		{
+			if (!this.seen.contains(it.next()))
+			{
+				it.remove();
+				dropped++;
+			}
+		}
+		
+		return dropped;
+	}
+	
+	/**
+	 * Gets every entry the query matches, in no particular order. Files that changed
+	 * since they were indexed are still included, as they were.
+	 * 
+	 * @param query Decides which entries to return
+	 * @return The matching entries
+	 */
+	public List<Entry> select(Query query)
+	{
+		List<Entry> results = new ArrayList<Entry>();
+		
+		for (Entry entry : this.entries.values())
+		{
+			if (query.matches(entry))
+			{
+				results.add(entry);
+			}
+		}
+		
+		return results;
+	}
+	
+	/**
+	 * Gets the tracks whose field has the given value, ignoring case. E.g. all tracks by
+	 * an artist.
+	 * 
+	 * @param key One of the indexed fields
+	 * @param value The value to look for
+	 * @return The matching entries
+	 */
+	public List<Entry> find(final FieldKey key, final String value)
+	{
+		final int index = checkIndexed(key);
+		
+		return this.select(new Query()
+		{
+			@Override
+			public boolean matches(Entry entry)
+			{
+				return entry.values[index].equalsIgnoreCase(value);
+			}
+		});
+	}
+	
+	/**
+	 * Gets the tracks that don't have the given field, e.g. no track number.
+	 * 
+	 * @param key One of the indexed fields
+	 * @return The matching entries
+	 */
+	public List<Entry> findMissing(FieldKey key)
+	{
+		final int index = checkIndexed(key);
+		
+		return this.select(new Query()
+		{
+			@Override
+			public boolean matches(Entry entry)
+			{
+				return entry.values[index].trim().length() == 0;
+			}
+		});
+	}
+	
+	/**
+	 * The number of files in the index.
+	 * 
+	 * @return Files indexed
+	 */
+	public int size()
+	{
+		return this.entries.size();
+	}
+	
+	/**
+	 * Reads the index from disk. A missing or mangled file leaves the index empty.
+	 * 
+	 * @throws IOException
+	 */
+	public void load() throws IOException
+	{
+		this.entries.clear();
+		this.values.clear();
+		this.seen.clear();
+		
+		if (!this.file.isFile())
+		{
+			return;
+		}
+		
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(this.file), UTF8));
+		
+		try
+		{
+			if (!HEADER.equals(reader.readLine()))
+			{
+				return;
+			}
+			
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				String[] parts = line.split("\t", -1);
+				String[] values = new String[FIELDS.length];
+				
+				for (int i = 0; i < FIELDS.length; i++)
+				{
+					values[i] = this.intern(unescape(parts[3 + i]));
+				}
+				
+				File file = new File(unescape(parts[2]));
+				this.entries.put(file.getPath(), new Entry(file, Long.parseLong(parts[0]), Long.parseLong(parts[1]), values));
+			}
+		}
+		catch (RuntimeException e)
+		{
+			// A mangled index only costs us reading the tags again
+			this.entries.clear();
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+	
+	/**
+	 * Writes the index to disk. The old index is only replaced once the new one has been
+	 * written completely.
+	 * 
+	 * @throws IOException
+	 */
+	public void save() throws IOException
+	{
+		File parent = this.file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+		{
+			throw new IOException("Could not create " + parent.getAbsolutePath());
+		}
+		
+		File temp = new File(parent, this.file.getName() + ".tmp");
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8));
+		
+		try
+		{
+			writer.write(HEADER);
+			writer.newLine();
+			
+			for (Entry entry : this.entries.values())
+			{
+				writer.write(entry.size + "\t" + entry.modified + "\t" + escape(entry.file.getPath()));
+				
+				for (String value : entry.values)
+				{
+					writer.write("\t" + escape(value));
+				}
+				writer.newLine();
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+		
+		Files.move(temp.toPath(), this.file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Where the given field is stored in an entry.
+	 * 
+	 * @return The position in FIELDS
+	 * @throws IllegalArgumentException If the field isn't indexed
+	 */
+	protected static int checkIndexed(FieldKey key)
+	{
+		for (int i = 0; i < FIELDS.length; i++)
+		{
+			if (FIELDS[i] == key)
+			{
+				return i;
+			}
+		}
+		
+		throw new IllegalArgumentException(key + " isn't indexed");
+	}
+	
+	/**
+	 * Gets the one copy of a value that's kept.
+	 */
+	protected String intern(String value)
+	{
+		if (value == null)
+		{
+			value = "";
+		}
+		
+		String existing = this.values.get(value);
+		if (existing != null)
+		{
+			return existing;
+		}
+		
+		this.values.put(value, value);
+		return value;
+	}
+	
+	/**
+	 * Escapes the characters that would break up a line.
+	 */
+	protected static String escape(String value)
+	{
+		StringBuilder escaped = null;
+		
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			String replacement = null;
+			
+			switch (c)
+			{
+				case '\\':
+					replacement = "\\\\";
+					break;
+				case '\t':
+					replacement = "\\t";
+					break;
+				case '\n':
+					replacement = "\\n";
+					break;
+				case '\r':
+					replacement = "\\r";
+					break;
+			}
+			
+			// Most values have nothing to escape, so don't copy them until something turns up
+			if (replacement != null && escaped == null)
+			{
+				escaped = new StringBuilder(value.length() + 8);
+				escaped.append(value, 0, i);
+			}
+			
+			if (escaped != null)
+			{
+				if (replacement != null)
+				{
+					escaped.append(replacement);
+				}
+				else
+				{
+					escaped.append(c);
+				}
+			}
+		}
+		
+		return escaped == null ? value : escaped.toString();
+	}
+	
+	/**
+	 * Undoes escape().
+	 */
+	protected static String unescape(String value)
+	{
+		if (value.indexOf('\\') < 0)
+		{
+			return value;
+		}
+		
+		StringBuilder unescaped = new StringBuilder(value.length());
+		
+		for (int i = 0; i < value.length(); i++)
+		{
+			char c = value.charAt(i);
+			
+			if (c == '\\' && i + 1 < value.length())
+			{
+				char next = value.charAt(++i);
+				unescaped.append(next == 't' ? '\t' : next == 'n' ? '\n' : next == 'r' ? '\r' : next);
+			}
+			else
+			{
+				unescaped.append(c);
+			}
+		}
+		
+		return unescaped.toString();
+	}
+}
@@ -0,0 +1,55 @@
+package com.blakeharley.fileworker.utils;
+
+import java.util.List;
+
+import javax.swing.JTextArea;
+import javax.swing.SwingUtilities;
+
+/**
+ * Shows log lines in a text area. Each batch becomes a single append on the event
+ * dispatch thread, so a burst of lines costs Swing one update instead of hundreds.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class TextAreaLogSink implements LogSink
+{
+	protected JTextArea area;
+	
+	/**
+	 * @param area The text area to append to
+	 */
+	public TextAreaLogSink(JTextArea area)
+	{
+		this.area = area;
+	}
+	
+	@Override
+	public void write(List<String> lines)
+	{
+		StringBuilder batch = new StringBuilder();
+		for (String line : lines)
+		{
+			batch.append(line).append('\n');
+		}
+		
+		final String text = batch.toString();
+		SwingUtilities.invokeLater(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				area.append(text);
+			}
+		});
+	}
+	
+	@Override
+	public void flush()
+	{
+	}
+	
+	@Override
+	public void close()
+	{
+	}
+}
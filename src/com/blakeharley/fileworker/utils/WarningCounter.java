@@ -0,0 +1,124 @@
+package com.blakeharley.fileworker.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+
+/**
+ * Swallows the log output of a library (jaudiotagger is very chatty about slightly odd
+ * tags) without touching System.err. Warnings are only counted, and the last few are
+ * kept around in case someone wants to look at them, so memory use stays flat no
+ * matter how many files go by.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class WarningCounter extends Handler
+{
+	/**
+	 * The logger we've taken over. Loggers are only weakly referenced by the log
+	 * manager, so we have to hang on to it or our settings might be forgotten.
+	 */
+	protected java.util.logging.Logger logger;
+	
+	/**
+	 * The amount of warnings seen so far.
+	 */
+	protected AtomicLong count = new AtomicLong();
+	
+	/**
+	 * The most recent warnings, used as a ring.
+	 */
+	protected AtomicReferenceArray<LogRecord> recent;
+	
+	/**
+	 * Creates a new counter that keeps the given amount of recent warnings.
+	 * 
+	 * @param keep The amount of recent warnings to keep
+	 */
+	public WarningCounter(int keep)
+	{
+		this.recent = new AtomicReferenceArray<LogRecord>(keep);
+		this.setLevel(Level.WARNING);
+	}
+	
+	/**
+	 * Takes over the given logger and all of its children. Anything below a warning is
+	 * turned away before a record is even created.
+	 * 
+	 * @param name The name of the logger, e.g. a package name
+	 * @return The counter now handling the logger
+	 */
+	public static WarningCounter install(String name)
+	{
+		WarningCounter counter = new WarningCounter(32);
+		counter.logger = java.util.logging.Logger.getLogger(name);
+		counter.logger.setLevel(Level.WARNING);
+		counter.logger.setUseParentHandlers(false);
+		
+		for (Handler handler : counter.logger.getHandlers())
+		{
+			counter.logger.removeHandler(handler);
+		}
+		counter.logger.addHandler(counter);
+		
+		return counter;
+	}
+	
+	@Override
+	public void publish(LogRecord record)
+	{
+		if (!this.isLoggable(record))
+		{
+			return;
+		}
+		
+		long n = this.count.getAndIncrement();
+		this.recent.set((int) (n % this.recent.length()), record);
+	}
+	
+	/**
+	 * The amount of warnings seen so far.
+	 * 
+	 * @return Warnings seen
+	 */
+	public long getCount()
+	{
+		return this.count.get();
+	}
+	
+	/**
+	 * Formats the most recent warnings, in no particular order.
+	 * 
+	 * @return Up to the amount of warnings this counter keeps
+	 */
+	public List<String> getRecent()
+	{
+		List<String> messages = new ArrayList<String>();
+		
+		for (int i = 0; i < this.recent.length(); i++)
+		{
+			LogRecord record = this.recent.get(i);
+			
+			if (record != null)
+			{
+				messages.add(record.getLevel() + ": " + record.getMessage());
+			}
+		}
+		
+		return messages;
+	}
+	
+	@Override
+	public void flush()
+	{
+	}
+	
+	@Override
+	public void close()
+	{
+	}
+}
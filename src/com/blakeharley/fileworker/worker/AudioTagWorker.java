@@ -1,31 +1,80 @@
 package com.blakeharley.fileworker.worker;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.PrintStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jaudiotagger.audio.AudioFile;
 import org.jaudiotagger.audio.AudioFileIO;
+import org.jaudiotagger.tag.Tag;
+import org.jaudiotagger.tag.id3.AbstractID3v2Tag;
 
+import com.blakeharley.fileworker.utils.Cull;
+import com.blakeharley.fileworker.utils.CullStream;
+import com.blakeharley.fileworker.utils.Id3Scan;
+import com.blakeharley.fileworker.utils.Journal;
 import com.blakeharley.fileworker.utils.Logger;
+import com.blakeharley.fileworker.utils.Manifest;
+import com.blakeharley.fileworker.utils.WarningCounter;
+import com.blakeharley.fileworker.worker.pipeline.DeviceLimiter;
+import com.blakeharley.fileworker.worker.pipeline.Pipeline;
+import com.blakeharley.fileworker.worker.pipeline.TrackJob;
 
 
+/**
+ * Base for workers that go through a library and do something with the tags of every
+ * file. Subclasses only deal with a single file at a time; the scanning, threading,
+ * progress and manifest bookkeeping happen here.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
 abstract public class AudioTagWorker implements Worker
 {
 	/**
-	 * The number of files moved so far.
+	 * The number of files finished so far.
 	 */
-	protected int filesDone = 0;
+	protected AtomicInteger filesDone = new AtomicInteger();
 	
 	/**
-	 * The total amount of files to move for the purpose of the progress bar.
+	 * The number of files that couldn't be worked on so far.
 	 */
-	protected int filesTotal = 0;
+	protected AtomicInteger filesFailed = new AtomicInteger();
+	
+	/**
+	 * The total amount of files for the purpose of the progress bar.
+	 */
+	protected volatile int filesTotal = 0;
 	
 	/**
 	 * This will track the current.
 	 */
-	protected String progressString = "Starting worker...";
+	protected volatile String progressString = "Starting worker...";
+	
+	/**
+	 * The amount of files worked on at the same time.
+	 */
+	protected int threads = 1;
+	
+	/**
+	 * Whether each file should get its own virtual thread instead of using a pool.
+	 */
+	protected boolean virtualThreads = false;
+	
+	/**
+	 * Whether reading, transforming and writing run as separate stages that overlap.
+	 */
+	protected boolean pipelined = false;
+	
+	/**
+	 * The threads of each pipeline stage. Zero means the same as the threads setting.
+	 */
+	protected int readThreads = 0;
+	protected int transformThreads = 0;
+	protected int writeThreads = 0;
 	
 	/**
 	 * The logger instance.
@@ -33,30 +82,774 @@ abstract public class AudioTagWorker implements Worker
 	protected Logger log;
 	
 	/**
-	 * Alternate print steam for hiding warnings.
+	 * The instance of the culler.
+	 */
+	protected Cull cull;
+	
+	/**
+	 * The manifest of the last run, if files that haven't changed should be skipped.
 	 */
-	protected PrintStream errorStream;
+	protected Manifest manifest;
+	
+	/**
+	 * The journal of finished files, if a run that dies should be resumable.
+	 */
+	protected Journal journal;
+	
+	/**
+	 * Limits the writes to each disk, if they shouldn't all go at once.
+	 */
+	protected DeviceLimiter limiter;
+	
+	/**
+	 * What got done and how long it took.
+	 */
+	protected Metrics metrics = new Metrics();
+	
+	/**
+	 * Counts the warnings jaudiotagger would otherwise print for every odd tag.
+	 */
+	protected static final WarningCounter WARNINGS = WarningCounter.install("org.jaudiotagger");
+	
+	@Override
+	public void doWork()
+	{
+		long warnings = WARNINGS.getCount();
+		log.log("Scanning directories for music...");
+		this.progressString = "Scanning directories for music...";
+		CullStream files = this.cull.stream();
+		log.log(this.getStartMessage());
+		this.progressString = null;
+		
+		this.filesDone.set(0);
+		this.filesFailed.set(0);
+		this.metrics.start();
+		
+		if (this.journal != null && this.journal.getResumedCount() > 0)
+		{
+			log.log("Resuming, " + this.journal.getResumedCount() + " files were already done.");
+		}
+		
+		boolean completed = false;
+		try
+		{
+			if (this.pipelined)
+			{
+				this.processPipelined(files);
+			}
+			else if (this.threads == 1 && !this.virtualThreads)
+			{
+				while (this.nextFile(files))
+				{
+					this.process(files.next());
+				}
+			}
+			else
+			{
+				this.processConcurrently(files);
+			}
+			this.setFilesTotal(files.getFound());
+			
+			this.finishWork();
+			this.saveManifest();
+			completed = true;
+		}
+		finally
+		{
+			// Frees the scan if the work was cut short
+			files.close();
+			this.metrics.finish();
+			this.closeJournal(completed);
+		}
+		
+		if (this.limiter != null)
+		{
+			for (DeviceLimiter.Device device : this.limiter.getDevices())
+			{
+				log.log("Writing to " + device.getName() + " ended up at " + device.getLimit() + " files at a time.");
+			}
+		}
+		log.log("Suppressed " + (WARNINGS.getCount() - warnings) + " tag warnings.");
+		log.log("Done.");
+	}
+	
+	/**
+	 * Works on the files using the configured amount of threads. Only a couple of files per
+	 * thread are handed out ahead of time, so a fast scan doesn't queue up the whole library.
+	 * 
+	 * @param files The files to work on
+	 */
+	protected void processConcurrently(CullStream files)
+	{
+		ExecutorService executor = this.createExecutor();
+		final Semaphore inFlight = new Semaphore(this.threads * 2);
+		
+		try
+		{
+			while (this.nextFile(files))
+			{
+				final File file = files.next();
+				inFlight.acquireUninterruptibly();
+				
+				executor.execute(new Runnable()
+				{
+					@Override
+					public void run()
+					{
+						try
+						{
+							process(file);
+						}
+						finally
+						{
+							inFlight.release();
+						}
+					}
+				});
+			}
+		}
+		finally
+		{
+			executor.shutdown();
+			
+			try
+			{
+				executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+	
+	/**
+	 * Works on the files in a pipeline: reading tags, transforming them and writing the
+	 * files back each get their own threads, so parsing one file overlaps with writing
+	 * another and the slowest stage sets the pace.
+	 * 
+	 * @param files The files to work on
+	 */
+	protected void processPipelined(CullStream files)
+	{
+		Pipeline<TrackJob> pipeline = new Pipeline<TrackJob>(new Pipeline.Listener<TrackJob>()
+		{
+			@Override
+			public void finished(TrackJob job)
+			{
+				finish(job);
+			}
+			
+			@Override
+			public void failed(TrackJob job, Exception e)
+			{
+				fail(job, e);
+			}
+		});
+		
+		int read = this.readThreads > 0 ? this.readThreads : this.threads;
+		int transform = this.transformThreads > 0 ? this.transformThreads : this.threads;
+		int write = this.writeThreads > 0 ? this.writeThreads : this.threads;
+		
+		pipeline.addStage("read", read, read * 2, new Pipeline.Stage<TrackJob>()
+		{
+			@Override
+			public boolean process(TrackJob job) throws Exception
+			{
+				return checkStage(job) && readStage(job);
+			}
+		});
+		
+		pipeline.addStage("transform", transform, transform * 2, new Pipeline.Stage<TrackJob>()
+		{
+			@Override
+			public boolean process(TrackJob job) throws Exception
+			{
+				return transformStage(job);
+			}
+		});
+		
+		pipeline.addStage("write", write, write * 2, new Pipeline.Stage<TrackJob>()
+		{
+			@Override
+			public boolean process(TrackJob job) throws Exception
+			{
+				return writeStage(job);
+			}
+		});
+		
+		pipeline.start();
+		
+		try
+		{
+			while (this.nextFile(files))
+			{
+				// Waits here when the pipeline is full
+				pipeline.submit(new TrackJob(files.next()));
+			}
+			
+			pipeline.finish();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	/**
+	 * Waits for the scan to come up with the next file, which counts as its scan time.
+	 * 
+	 * @param files The files being scanned
+	 * @return False once the scan is done and every file has been handed out
+	 */
+	protected boolean nextFile(CullStream files)
+	{
+		long start = System.nanoTime();
+		boolean more = files.hasNext();
+		
+		// The total keeps growing until the scan catches up
+		this.setFilesTotal(files.getFound());
+		
+		if (more)
+		{
+			this.metrics.recordSince(Metrics.Stage.SCAN, 0, start);
+		}
+		
+		return more;
+	}
+	
+	/**
+	 * Updates the amount of files found so far.
+	 * 
+	 * @param total The amount of files
+	 */
+	protected void setFilesTotal(int total)
+	{
+		this.filesTotal = total;
+		this.metrics.setFilesTotal(total);
+	}
+	
+	/**
+	 * Creates the executor for concurrent work. Virtual threads are only available on
+	 * newer JVMs, so we look for them at runtime and fall back to a plain pool.
+	 * 
+	 * @return A new executor
+	 */
+	protected ExecutorService createExecutor()
+	{
+		if (this.virtualThreads)
+		{
+			try
+			{
+				return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+			}
+			catch (Exception e)
+			{
+				log.log("Virtual threads aren't available, using a thread pool instead.");
+			}
+		}
+		
+		return Executors.newFixedThreadPool(this.threads);
+	}
+	
+	/**
+	 * Works on a single file, keeping track of progress and the manifest. Safe to call
+	 * from several threads at once.
+	 * 
+	 * @param file The file to work on
+	 */
+	protected void process(File file)
+	{
+		TrackJob job = new TrackJob(file);
+		
+		try
+		{
+			if (this.checkStage(job) && this.readStage(job) && this.transformStage(job))
+			{
+				this.writeStage(job);
+			}
+			
+			this.finish(job);
+		}
+		catch (Exception e)
+		{
+			this.fail(job, e);
+		}
+	}
+	
+	/**
+	 * Decides whether a file needs a full parse at all.
+	 * 
+	 * @param job The job for the file
+	 * @return False if the job is already done
+	 */
+	protected boolean checkStage(TrackJob job)
+	{
+		// Nothing to do if the last run already took care of it
+		if (this.isUnchanged(job.getFile()))
+		{
+			job.setOutcome(null);
+			return false;
+		}
+		
+		// Nothing to do if a run that died got to it. It's still recorded in the manifest.
+		if (this.journal != null && this.journal.isDone(job.getFile()))
+		{
+			return false;
+		}
+		
+		// Files that obviously don't need anything done are finished without a full parse
+		return this.needsWork(job.getFile());
+	}
+	
+	/**
+	 * Reads the file's tags, keeping track of how long it takes.
+	 * 
+	 * @param job The job for the file
+	 * @return True, the job always goes on to the transform
+	 * @throws Exception If the tags couldn't be read
+	 */
+	protected boolean readStage(TrackJob job) throws Exception
+	{
+		job.setStage(Metrics.Stage.READ);
+		long start = System.nanoTime();
+		this.readTags(job);
+		this.metrics.recordSince(Metrics.Stage.READ, job.getFile().length(), start);
+		
+		return true;
+	}
+	
+	/**
+	 * Works out the changes to the file, keeping track of how long it takes.
+	 * 
+	 * @param job The job for the file
+	 * @return True if the file has to be written
+	 * @throws Exception If the changes couldn't be made
+	 */
+	protected boolean transformStage(TrackJob job) throws Exception
+	{
+		job.setStage(Metrics.Stage.TRANSFORM);
+		long start = System.nanoTime();
+		boolean write = this.transform(job);
+		this.metrics.recordSince(Metrics.Stage.TRANSFORM, 0, start);
+		
+		return write;
+	}
+	
+	/**
+	 * Writes the file, keeping track of how long it takes. With a device limiter this
+	 * first waits for the disk the file goes to; the wait isn't counted as writing.
+	 * 
+	 * @param job The job for the file
+	 * @return False, the job is done after this
+	 * @throws Exception If the file couldn't be written
+	 */
+	protected boolean writeStage(TrackJob job) throws Exception
+	{
+		job.setStage(Metrics.Stage.WRITE);
+		
+		DeviceLimiter.Device device = null;
+		if (this.limiter != null)
+		{
+			device = this.limiter.forFile(job.getOutput());
+			device.acquire();
+		}
+		
+		long start = System.nanoTime();
+		long bytes = 0;
+		
+		try
+		{
+			this.write(job);
+			bytes = job.getOutput().length();
+		}
+		finally
+		{
+			if (device != null)
+			{
+				device.release(bytes);
+			}
+		}
+		
+		this.metrics.recordSince(Metrics.Stage.WRITE, bytes, start);
+		
+		return false;
+	}
+	
+	/**
+	 * Wraps up a job that went through, recording its outcome.
+	 * 
+	 * @param job The finished job
+	 */
+	protected void finish(TrackJob job)
+	{
+		if (job.getOutcome() != null)
+		{
+			this.recordOutcome(job.getFile(), job.getOutcome());
+		}
+		
+		if (this.journal != null && job.getOutcome() == Manifest.Outcome.DONE)
+		{
+			this.journal.record(job.getFile());
+		}
+		
+		this.filesDone.incrementAndGet();
+		this.metrics.fileFinished();
+	}
+	
+	/**
+	 * Wraps up a job that couldn't be finished.
+	 * 
+	 * @param job The failed job
+	 * @param e What went wrong
+	 */
+	protected void fail(TrackJob job, Exception e)
+	{
+		// Some exceptions, e.g. a NullPointerException, don't come with a message
+		String reason = e.getMessage() != null ? e.getMessage() : e.toString();
+		log.log("Could not " + job.getStage().name().toLowerCase() + " " + job.getFile().getAbsolutePath() + ": " + reason);
+		this.filesFailed.incrementAndGet();
+		this.metrics.recordSince(Metrics.Stage.ERROR, 0, job.getStarted());
+		
+		job.setOutcome(Manifest.Outcome.FAILED);
+		this.finish(job);
+	}
+	
+	/**
+	 * A cheap check that runs before the tags are read. Workers that can tell from the raw
+	 * tag layout that a file doesn't need any work can override this to skip the full
+	 * parse. This may be called from several threads at once.
+	 * 
+	 * @param file The file to check
+	 * @return False if the file can be skipped
+	 */
+	protected boolean needsWork(File file)
+	{
+		return true;
+	}
+	
+	/**
+	 * Checks whether the file's ID3v2 tag might have any of the given frames, by only
+	 * reading the frame headers. Errs on the side of yes when the tag can't be scanned.
+	 * 
+	 * @param file An MP3 file
+	 * @param frameIds Frame IDs, e.g. "COMM"
+	 * @return False only if the tag definitely has none of the frames
+	 */
+	public boolean mayHaveFrames(File file, String... frameIds)
+	{
+		Id3Scan scan = this.scanTags(file);
+		
+		return scan == null || scan.mayHaveFrame(frameIds);
+	}
+	
+	/**
+	 * Scans the raw tag layout of the file without parsing any frames.
+	 * 
+	 * @param file An MP3 file
+	 * @return The scan, or null if the file couldn't be read
+	 */
+	protected Id3Scan scanTags(File file)
+	{
+		try
+		{
+			return Id3Scan.read(file);
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads the tags of the job's file. By default this parses the file with jaudiotagger.
+	 * This may be called from several threads at once.
+	 * 
+	 * @param job The job for the file
+	 * @throws Exception If the tags couldn't be read
+	 */
+	protected void readTags(TrackJob job) throws Exception
+	{
+		job.setAudioFile(this.getAudioFile(job.getFile()));
+	}
+	
+	/**
+	 * Works out what this worker does to a single file, in memory. This may be called
+	 * from several threads at once, so anything shared between files has to be thread safe.
+	 * A CompositeWorker runs the transforms of several workers on the same job, so only
+	 * ever mark the job changed, never unchanged.
+	 * 
+	 * @param job The job for the file, with its tags read
+	 * @return True if the file has to be written
+	 * @throws Exception If the file couldn't be worked on
+	 */
+	protected abstract boolean transform(TrackJob job) throws Exception;
+	
+	/**
+	 * Writes the changes the transform made. Set the job's outcome to null if the file
+	 * should be tried again next run. This may be called from several threads at once.
+	 * 
+	 * @param job The job for the file
+	 * @throws Exception If the file couldn't be written
+	 */
+	protected abstract void write(TrackJob job) throws Exception;
+	
+	/**
+	 * Called once every file has been worked on, for work that has to wait until then.
+	 * The journal is still open, so a run that dies in here can pick up again.
+	 */
+	protected void finishWork()
+	{
+	}
+	
+	/**
+	 * Whether this worker's write puts files somewhere new rather than writing them in
+	 * place. A CompositeWorker hands the write to such a worker, if it has one.
+	 * 
+	 * @return True if the worker sets the job's destination
+	 */
+	protected boolean relocates()
+	{
+		return false;
+	}
+	
+	/**
+	 * The message logged once the worker starts going through the files.
+	 * 
+	 * @return The message
+	 */
+	protected String getStartMessage()
+	{
+		return "Working on files...";
+	}
+	
+	/**
+	 * Sets the amount of files worked on at the same time. One works through the
+	 * files in order on the calling thread.
+	 * 
+	 * @param threads The number of threads
+	 */
+	public void setThreads(int threads)
+	{
+		if (threads < 1)
+		{
+			throw new IllegalArgumentException("Threads must be at least one");
+		}
+		
+		this.threads = threads;
+	}
+	
+	/**
+	 * Sets whether reading, transforming and writing run as separate stages with their
+	 * own threads, so they overlap. Each stage uses the threads setting unless
+	 * setStageThreads() says otherwise.
+	 * 
+	 * @param pipelined True to run the stages as a pipeline
+	 */
+	public void setPipelined(boolean pipelined)
+	{
+		this.pipelined = pipelined;
+	}
+	
+	/**
+	 * Sets the threads of each pipeline stage, e.g. more for writing when the disk is
+	 * slow. Zero means the same as the threads setting.
+	 * 
+	 * @param read Threads reading tags
+	 * @param transform Threads transforming tags
+	 * @param write Threads writing files
+	 */
+	public void setStageThreads(int read, int transform, int write)
+	{
+		if (read < 0 || transform < 0 || write < 0)
+		{
+			throw new IllegalArgumentException("Threads can't be negative");
+		}
+		
+		this.readThreads = read;
+		this.transformThreads = transform;
+		this.writeThreads = write;
+	}
+	
+	/**
+	 * Sets whether to give each file its own virtual thread instead of using a pool. The
+	 * amount of files in flight is still limited by setThreads(). Only has an effect on
+	 * JVMs that support virtual threads.
+	 * 
+	 * @param virtualThreads True to use virtual threads
+	 */
+	public void setVirtualThreads(boolean virtualThreads)
+	{
+		this.virtualThreads = virtualThreads;
+	}
+	
+	/**
+	 * Sets the limiter that works out how many files to write to each disk at the same
+	 * time. Without one every thread writes whenever it gets to it.
+	 * 
+	 * @param limiter The limiter, or null to not limit writes
+	 */
+	public void setDeviceLimiter(DeviceLimiter limiter)
+	{
+		this.limiter = limiter;
+	}
+	
+	/**
+	 * The number of files finished so far, including any that failed.
+	 * 
+	 * @return Files finished
+	 */
+	public int getFilesDone()
+	{
+		return this.filesDone.get();
+	}
+	
+	/**
+	 * The number of files found so far. This keeps growing while the scan is running.
+	 * 
+	 * @return Files found
+	 */
+	public int getFilesTotal()
+	{
+		return this.filesTotal;
+	}
+	
+	/**
+	 * The number of files that couldn't be worked on.
+	 * 
+	 * @return Files failed
+	 */
+	public int getFilesFailed()
+	{
+		return this.filesFailed.get();
+	}
 	
 	@Override
 	public float getPercentDone()
 	{
-		return ((float) filesDone) / filesTotal;
+		return ((float) filesDone.get()) / filesTotal;
 	}
-
+	
 	@Override
 	public String getProgressString()
 	{
 		return this.progressString;
 	}
-
+	
 	@Override
 	public void setLogger(Logger logger)
 	{
 		this.log = logger;
+		this.metrics.setLogger(logger);
+	}
+	
+	/**
+	 * Sets the manifest used to skip files and directories that haven't changed since
+	 * the last run. The manifest is saved when the worker finishes.
+	 * 
+	 * @param manifest The manifest, or null to work on everything
+	 */
+	public void setManifest(Manifest manifest)
+	{
+		this.manifest = manifest;
+		this.cull.setManifest(manifest);
+	}
+	
+	/**
+	 * Sets the journal that keeps track of finished files while the worker runs. Files
+	 * already in it are skipped without being read. It's deleted once the worker finishes,
+	 * and kept for the next run if the worker falls over.
+	 * 
+	 * @param journal The open journal, or null to not keep one
+	 */
+	public void setJournal(Journal journal)
+	{
+		this.journal = journal;
+	}
+	
+	/**
+	 * Checks whether the last run already finished with this file and it hasn't
+	 * changed since. The file isn't opened.
+	 * 
+	 * @param file The file to check
+	 * @return True if the file can be skipped
+	 */
+	protected boolean isUnchanged(File file)
+	{
+		return this.manifest != null && this.manifest.isDone(file);
+	}
+	
+	/**
+	 * Records what happened to the given file for the next run. Call this after the
+	 * file has been written so its new size and modification time are picked up.
+	 * 
+	 * @param file The file that was worked on
+	 * @param outcome What happened to it
+	 */
+	protected void recordOutcome(File file, Manifest.Outcome outcome)
+	{
+		if (this.manifest != null)
+		{
+			this.manifest.putFile(file, outcome);
+		}
+	}
+	
+	/**
+	 * Writes the manifest back to disk, if there is one.
+	 */
+	protected void saveManifest()
+	{
+		if (this.manifest == null)
+		{
+			return;
+		}
+		
+		try
+		{
+			this.manifest.save();
+		}
+		catch (IOException e)
+		{
+			log.log("Manifest could not be saved: " + this.manifest.getFile().getAbsolutePath());
+		}
+	}
+	
+	/**
+	 * Closes the journal, if there is one, and lets go of it. A finished run doesn't need
+	 * it anymore.
+	 * 
+	 * @param completed True if every file was worked on
+	 */
+	protected void closeJournal(boolean completed)
+	{
+		if (this.journal == null)
+		{
+			return;
+		}
+		
+		try
+		{
+			if (completed)
+			{
+				this.journal.delete();
+			}
+			else
+			{
+				this.journal.close();
+			}
+		}
+		catch (IOException e)
+		{
+			log.log("Journal could not be written: " + this.journal.getFile().getAbsolutePath());
+		}
+		
+		// It only covers this run; a watcher's later passes must not skip files by it
+		this.journal = null;
 	}
 	
 	/**
-	 * Gets an audio file while suppressing warning messages.
+	 * Gets an audio file. Warnings are counted by the jaudiotagger log handler instead of
+	 * being printed, so this is safe to call from several threads at once.
 	 * 
 	 * @param file The file to get audio information for
 	 * @return The audio file
@@ -64,26 +857,42 @@ abstract public class AudioTagWorker implements Worker
 	 */
 	protected AudioFile getAudioFile(File file) throws Exception
 	{
-		PrintStream oldErr = System.err;
-		System.setErr(this.getAlternateErrorSteam());
-		AudioFile audioFile = AudioFileIO.read(file);
-		System.setErr(oldErr);
-		
-		return audioFile;
+		return AudioFileIO.read(file);
 	}
 	
 	/**
-	 * Lazy loads an error print steam.
+	 * Writes the audio file's tag back to disk. ID3v2 tags that still fit in the space
+	 * of the old tag are patched in place, so the audio isn't rewritten; anything else
+	 * gets a regular commit.
 	 * 
-	 * @return
+	 * @param audioFile The audio file with a changed tag
+	 * @throws Exception
 	 */
-	protected PrintStream getAlternateErrorSteam()
+	protected void commit(AudioFile audioFile) throws Exception
 	{
-		if (this.errorStream == null)
+		Tag tag = audioFile.getTag();
+		
+		if (tag instanceof AbstractID3v2Tag && TagWriter.patch(audioFile.getFile(), (AbstractID3v2Tag) tag))
 		{
-			this.errorStream = new PrintStream(new ByteArrayOutputStream());
+			return;
 		}
 		
-		return this.errorStream;
+		audioFile.commit();
+	}
+	
+	@Override
+	public Metrics getMetrics()
+	{
+		return this.metrics;
+	}
+	
+	/**
+	 * The amount of jaudiotagger warnings suppressed so far, across all workers.
+	 * 
+	 * @return Warnings suppressed
+	 */
+	public long getWarningCount()
+	{
+		return WARNINGS.getCount();
 	}
 }
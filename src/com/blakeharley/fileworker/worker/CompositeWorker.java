@@ -0,0 +1,162 @@
+package com.blakeharley.fileworker.worker;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.blakeharley.fileworker.utils.Cull;
+import com.blakeharley.fileworker.utils.Logger;
+import com.blakeharley.fileworker.worker.pipeline.TrackJob;
+
+/**
+ * Runs several workers over a library in a single pass. Each file is scanned, parsed
+ * and written once, with the transforms of all the workers applied in between, instead
+ * of every worker going through the whole library on its own.
+ * 
+ * Workers that write in place are fine to combine. At most one of them may put files
+ * somewhere new (like the Mover); if there is one, it does the write, taking the changes
+ * of the others along.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class CompositeWorker extends AudioTagWorker
+{
+	/**
+	 * The workers whose transforms are applied, in order.
+	 */
+	protected List<AudioTagWorker> operations;
+	
+	/**
+	 * The worker that writes files to their new home, or null to write in place.
+	 */
+	protected AudioTagWorker relocator;
+	
+	/**
+	 * Creates a worker that runs the given workers over the files in the given directory.
+	 * Only their transforms and writes are used; their own directories, threads and
+	 * manifests are ignored.
+	 * 
+	 * @param path The location to look in for files
+	 * @param operations The workers to combine, in the order their transforms run
+	 */
+	public CompositeWorker(String path, AudioTagWorker... operations)
+	{
+		if (operations.length == 0)
+		{
+			throw new IllegalArgumentException("A composite worker needs at least one worker");
+		}
+		
+		this.cull = new Cull(path);
+		this.operations = new ArrayList<AudioTagWorker>(Arrays.asList(operations));
+		
+		for (AudioTagWorker operation : operations)
+		{
+			if (operation.relocates())
+			{
+				if (this.relocator != null)
+				{
+					throw new IllegalArgumentException("Only one worker can move files, not both "
+						+ this.relocator.getName() + " and " + operation.getName());
+				}
+				
+				this.relocator = operation;
+			}
+		}
+	}
+	
+	/**
+	 * A file needs work if any of the workers says so.
+	 */
+	@Override
+	protected boolean needsWork(File file)
+	{
+		for (AudioTagWorker operation : this.operations)
+		{
+			if (operation.needsWork(file))
+			{
+				return true;
+			}
+		}
+		
+		return false;
+	}
+	
+	@Override
+	protected boolean transform(TrackJob job) throws Exception
+	{
+		boolean write = false;
+		
+		for (AudioTagWorker operation : this.operations)
+		{
+			write |= operation.transform(job);
+		}
+		
+		return write;
+	}
+	
+	@Override
+	protected void write(TrackJob job) throws Exception
+	{
+		if (this.relocator != null)
+		{
+			this.relocator.write(job);
+		}
+		else
+		{
+			this.commit(job.getAudioFile());
+		}
+	}
+	
+	@Override
+	protected void finishWork()
+	{
+		for (AudioTagWorker operation : this.operations)
+		{
+			operation.finishWork();
+		}
+	}
+	
+	@Override
+	protected boolean relocates()
+	{
+		return this.relocator != null;
+	}
+	
+	@Override
+	public void setLogger(Logger logger)
+	{
+		super.setLogger(logger);
+		
+		for (AudioTagWorker operation : this.operations)
+		{
+			operation.setLogger(logger);
+		}
+	}
+	
+	@Override
+	protected String getStartMessage()
+	{
+		StringBuilder message = new StringBuilder();
+		
+		for (AudioTagWorker operation : this.operations)
+		{
+			message.append(message.length() == 0 ? "" : " ").append(operation.getStartMessage());
+		}
+		
+		return message.toString();
+	}
+	
+	@Override
+	public String getName()
+	{
+		StringBuilder name = new StringBuilder();
+		
+		for (AudioTagWorker operation : this.operations)
+		{
+			name.append(name.length() == 0 ? "" : "+").append(operation.getName());
+		}
+		
+		return name.toString();
+	}
+}
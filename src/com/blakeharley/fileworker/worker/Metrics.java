@@ -0,0 +1,569 @@
+package com.blakeharley.fileworker.worker;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import com.blakeharley.fileworker.utils.Logger;
+
+/**
+ * Counts what a worker gets done and how long each part of it takes. Every file goes
+ * through a few stages, and each stage keeps its own file and byte counts and a
+ * histogram of how long it took. Comparing the stages shows where a slow run spends
+ * its time: a long read or write points at the disk, a long transform at the CPU.
+ * 
+ * While a job runs, listeners are sent a snapshot every so often, so nobody has to
+ * poll. Recording is lock free and safe from any thread.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class Metrics
+{
+	/**
+	 * The parts of working on a file.
+	 */
+	public enum Stage
+	{
+		/**
+		 * Finding the file in the library.
+		 */
+		SCAN,
+		
+		/**
+		 * Reading and parsing the file's tags.
+		 */
+		READ,
+		
+		/**
+		 * Working out the changes to make.
+		 */
+		TRANSFORM,
+		
+		/**
+		 * Writing the file back, or to its new home.
+		 */
+		WRITE,
+		
+		/**
+		 * Files that couldn't be worked on.
+		 */
+		ERROR
+	}
+	
+	/**
+	 * Gets told about the metrics while a job runs.
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called from the metrics thread every interval, and once more when the job is done.
+		 * 
+		 * @param snapshot The metrics as they are now
+		 */
+		public void metricsUpdated(Snapshot snapshot);
+	}
+	
+	/**
+	 * The metrics of a single stage at one point in time.
+	 */
+	public static class StageSnapshot
+	{
+		public final Stage stage;
+		public final long files;
+		public final long bytes;
+		
+		/**
+		 * The total time spent in this stage, across all threads.
+		 */
+		public final long nanos;
+		
+		public final long p50Nanos;
+		public final long p99Nanos;
+		
+		public StageSnapshot(Stage stage, long files, long bytes, long nanos, long p50Nanos, long p99Nanos)
+		{
+			this.stage = stage;
+			this.files = files;
+			this.bytes = bytes;
+			this.nanos = nanos;
+			this.p50Nanos = p50Nanos;
+			this.p99Nanos = p99Nanos;
+		}
+		
+		/**
+		 * The average time a file spent in this stage.
+		 * 
+		 * @return The time in nanoseconds, or 0 if no files went through
+		 */
+		public long getMeanNanos()
+		{
+			return this.files == 0 ? 0 : this.nanos / this.files;
+		}
+	}
+	
+	/**
+	 * The metrics of the whole job at one point in time.
+	 */
+	public static class Snapshot
+	{
+		public final long elapsedMillis;
+		
+		/**
+		 * Files finished, including any that failed.
+		 */
+		public final int filesDone;
+		
+		/**
+		 * Files found so far. This keeps growing while the scan is running.
+		 */
+		public final int filesTotal;
+		
+		/**
+		 * Files finished per second over the last few seconds.
+		 */
+		public final double filesPerSecond;
+		
+		/**
+		 * Megabytes read and written per second over the last few seconds.
+		 */
+		public final double megabytesPerSecond;
+		
+		/**
+		 * How long until the job is done at the current rate, or -1 if there's no telling yet.
+		 */
+		public final long etaMillis;
+		
+		/**
+		 * Whether this is the last snapshot of the job.
+		 */
+		public final boolean finished;
+		
+		public final StageSnapshot[] stages;
+		
+		public Snapshot(long elapsedMillis, int filesDone, int filesTotal, double filesPerSecond,
+			double megabytesPerSecond, long etaMillis, boolean finished, StageSnapshot[] stages)
+		{
+			this.elapsedMillis = elapsedMillis;
+			this.filesDone = filesDone;
+			this.filesTotal = filesTotal;
+			this.filesPerSecond = filesPerSecond;
+			this.megabytesPerSecond = megabytesPerSecond;
+			this.etaMillis = etaMillis;
+			this.finished = finished;
+			this.stages = stages;
+		}
+		
+		/**
+		 * Gets the metrics of one stage.
+		 * 
+		 * @param stage The stage
+		 * @return Its metrics
+		 */
+		public StageSnapshot getStage(Stage stage)
+		{
+			return this.stages[stage.ordinal()];
+		}
+		
+		/**
+		 * How far along the job is.
+		 * 
+		 * @return A value between 0 and 1
+		 */
+		public float getPercentDone()
+		{
+			return this.filesTotal == 0 ? 0 : (float) this.filesDone / this.filesTotal;
+		}
+		
+		/**
+		 * Writes the snapshot as the members of a JSON object, without the braces, so it
+		 * can be combined with other members.
+		 * 
+		 * @return The members
+		 */
+		public String toJsonMembers()
+		{
+			StringBuilder json = new StringBuilder();
+			json.append("\"elapsedMs\":").append(this.elapsedMillis);
+			json.append(",\"done\":").append(this.filesDone);
+			json.append(",\"total\":").append(this.filesTotal);
+			json.append(",\"filesPerSec\":").append(round(this.filesPerSecond));
+			json.append(",\"mbPerSec\":").append(round(this.megabytesPerSecond));
+			json.append(",\"etaMs\":").append(this.etaMillis);
+			json.append(",\"stages\":{");
+			
+			for (int i = 0; i < this.stages.length; i++)
+			{
+				StageSnapshot stage = this.stages[i];
+				
+				json.append(i == 0 ? "" : ",").append('"').append(stage.stage.name().toLowerCase()).append("\":{");
+				json.append("\"files\":").append(stage.files);
+				json.append(",\"bytes\":").append(stage.bytes);
+				json.append(",\"busyMs\":").append(stage.nanos / 1000000);
+				json.append(",\"meanMs\":").append(round(stage.getMeanNanos() / 1e6));
+				json.append(",\"p50Ms\":").append(round(stage.p50Nanos / 1e6));
+				json.append(",\"p99Ms\":").append(round(stage.p99Nanos / 1e6));
+				json.append('}');
+			}
+			
+			return json.append('}').toString();
+		}
+		
+		protected static double round(double value)
+		{
+			return Math.round(value * 100) / 100.0;
+		}
+	}
+	
+	/**
+	 * Latencies are bucketed by powers of two, so a histogram is just a few longs.
+	 */
+	protected static final int BUCKETS = 64;
+	
+	/**
+	 * How many ticks the rolling rates are averaged over.
+	 */
+	protected static final int WINDOW = 10;
+	
+	protected static final int STAGES = Stage.values().length;
+	
+	protected AtomicLongArray files = new AtomicLongArray(STAGES);
+	
+	protected AtomicLongArray bytes = new AtomicLongArray(STAGES);
+	
+	protected AtomicLongArray nanos = new AtomicLongArray(STAGES);
+	
+	/**
+	 * One histogram per stage, laid out one after the other.
+	 */
+	protected AtomicLongArray histograms = new AtomicLongArray(STAGES * BUCKETS);
+	
+	protected AtomicInteger filesDone = new AtomicInteger();
+	
+	protected volatile int filesTotal = 0;
+	
+	protected List<Listener> listeners = new CopyOnWriteArrayList<Listener>();
+	
+	/**
+	 * Where listeners that throw are reported, or null for the thread's handler.
+	 */
+	protected volatile Logger log;
+	
+	/**
+	 * How often listeners are told, in milliseconds.
+	 */
+	protected long interval = 500;
+	
+	protected volatile long started;
+	
+	/**
+	 * Runs the ticks. Only exists while a job is running.
+	 */
+	protected ScheduledExecutorService ticker;
+	
+	/**
+	 * The times and totals of the last few ticks, for the rolling rates. Only touched by
+	 * whoever holds the lock on this.
+	 */
+	protected long[] windowTimes = new long[WINDOW];
+	protected long[] windowFiles = new long[WINDOW];
+	protected long[] windowBytes = new long[WINDOW];
+	protected int ticks = 0;
+	
+	/**
+	 * Records that a file went through a stage.
+	 * 
+	 * @param stage The stage
+	 * @param bytes The amount of bytes read or written, or 0
+	 * @param nanos How long it took
+	 */
+	public void record(Stage stage, long bytes, long nanos)
+	{
+		int i = stage.ordinal();
+		
+		this.files.incrementAndGet(i);
+		this.bytes.addAndGet(i, bytes);
+		this.nanos.addAndGet(i, nanos);
+		this.histograms.incrementAndGet(i * BUCKETS + bucket(nanos));
+	}
+	
+	/**
+	 * Records that a file went through a stage that started at the given time.
+	 * 
+	 * @param stage The stage
+	 * @param bytes The amount of bytes read or written, or 0
+	 * @param start When the stage started, from System.nanoTime()
+	 */
+	public void recordSince(Stage stage, long bytes, long start)
+	{
+		this.record(stage, bytes, System.nanoTime() - start);
+	}
+	
+	/**
+	 * Records that a file is finished with, however it went.
+	 */
+	public void fileFinished()
+	{
+		this.filesDone.incrementAndGet();
+	}
+	
+	/**
+	 * Sets how many files the job has found so far.
+	 * 
+	 * @param total The amount of files
+	 */
+	public void setFilesTotal(int total)
+	{
+		this.filesTotal = total;
+	}
+	
+	/**
+	 * Sets how often listeners are told while a job runs. Takes effect from the next job.
+	 * 
+	 * @param interval The interval in milliseconds
+	 */
+	public void setInterval(long interval)
+	{
+		if (interval < 1)
+		{
+			throw new IllegalArgumentException("Interval must be at least one millisecond");
+		}
+		
+		this.interval = interval;
+	}
+	
+	/**
+	 * Sets where listeners that throw are reported.
+	 * 
+	 * @param logger The logger, or null to leave it to the thread's handler
+	 */
+	public void setLogger(Logger logger)
+	{
+		this.log = logger;
+	}
+	
+	public void addListener(Listener listener)
+	{
+		this.listeners.add(listener);
+	}
+	
+	public void removeListener(Listener listener)
+	{
+		this.listeners.remove(listener);
+	}
+	
+	/**
+	 * Clears the metrics and starts telling the listeners. Called when a job starts.
+	 */
+	public synchronized void start()
+	{
+		for (int i = 0; i < STAGES; i++)
+		{
+			this.files.set(i, 0);
+			this.bytes.set(i, 0);
+			this.nanos.set(i, 0);
+		}
+		for (int i = 0; i < this.histograms.length(); i++)
+		{
+			this.histograms.set(i, 0);
+		}
+		this.filesDone.set(0);
+		this.filesTotal = 0;
+		this.ticks = 0;
+		this.started = System.nanoTime();
+		
+		if (this.ticker != null)
+		{
+			this.ticker.shutdownNow();
+		}
+		
+		this.ticker = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+		{
+			@Override
+			public Thread newThread(Runnable runnable)
+			{
+				Thread thread = new Thread(runnable, "Metrics");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		
+		this.ticker.scheduleAtFixedRate(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				publish(false);
+			}
+		}, this.interval, this.interval, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Stops the ticks and sends the listeners one last snapshot. Called when a job is done.
+	 * A tick that's already running gets to finish first, so the last snapshot is always
+	 * the finished one.
+	 */
+	public void finish()
+	{
+		ScheduledExecutorService ticker;
+		
+		synchronized (this)
+		{
+			ticker = this.ticker;
+			this.ticker = null;
+		}
+		
+		if (ticker != null)
+		{
+			// Not shutdownNow(), that would interrupt a listener in the middle of a tick
+			ticker.shutdown();
+			
+			try
+			{
+				ticker.awaitTermination(10, TimeUnit.SECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		this.publish(true);
+	}
+	
+	/**
+	 * Sends the listeners a snapshot. A listener that throws is reported and the rest
+	 * are still told; otherwise it would quietly cancel the ticks for the rest of the job.
+	 */
+	protected void publish(boolean finished)
+	{
+		Snapshot snapshot = this.snapshot(finished);
+		
+		for (Listener listener : this.listeners)
+		{
+			try
+			{
+				listener.metricsUpdated(snapshot);
+			}
+			catch (RuntimeException e)
+			{
+				this.listenerFailed(e);
+			}
+		}
+	}
+	
+	/**
+	 * Reports a listener that threw.
+	 */
+	protected void listenerFailed(RuntimeException e)
+	{
+		Logger log = this.log;
+		
+		if (log != null)
+		{
+			log.log("A metrics listener failed: " + e);
+			return;
+		}
+		
+		Thread thread = Thread.currentThread();
+		Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+		
+		if (handler != null)
+		{
+			handler.uncaughtException(thread, e);
+		}
+	}
+	
+	/**
+	 * Takes a snapshot of the metrics as they are now. Also moves the rolling window
+	 * along, so this is meant to be called once per tick.
+	 * 
+	 * @param finished Whether the job is done
+	 * @return The snapshot
+	 */
+	public synchronized Snapshot snapshot(boolean finished)
+	{
+		long now = System.nanoTime();
+		int done = this.filesDone.get();
+		int total = Math.max(this.filesTotal, done);
+		
+		StageSnapshot[] stages = new StageSnapshot[STAGES];
+		for (Stage stage : Stage.values())
+		{
+			int i = stage.ordinal();
+			stages[i] = new StageSnapshot(stage, this.files.get(i), this.bytes.get(i), this.nanos.get(i),
+				this.percentile(i, 0.5), this.percentile(i, 0.99));
+		}
+		
+		long bytes = stages[Stage.READ.ordinal()].bytes + stages[Stage.WRITE.ordinal()].bytes;
+		
+		// Compare against the oldest tick we still remember, or the start of the job
+		int slot = this.ticks % WINDOW;
+		long thenTime = this.ticks < WINDOW ? this.started : this.windowTimes[slot];
+		long thenFiles = this.ticks < WINDOW ? 0 : this.windowFiles[slot];
+		long thenBytes = this.ticks < WINDOW ? 0 : this.windowBytes[slot];
+		
+		this.windowTimes[slot] = now;
+		this.windowFiles[slot] = done;
+		this.windowBytes[slot] = bytes;
+		this.ticks++;
+		
+		double seconds = Math.max(now - thenTime, 1) / 1e9;
+		double filesPerSecond = (done - thenFiles) / seconds;
+		double megabytesPerSecond = (bytes - thenBytes) / seconds / (1024 * 1024);
+		
+		long eta = -1;
+		if (finished)
+		{
+			eta = 0;
+		}
+		else if (filesPerSecond > 0)
+		{
+			eta = (long) ((total - done) / filesPerSecond * 1000);
+		}
+		
+		return new Snapshot((now - this.started) / 1000000, done, total, filesPerSecond,
+			megabytesPerSecond, eta, finished, stages);
+	}
+	
+	/**
+	 * Reads a percentile off a stage's histogram.
+	 * 
+	 * @return The upper bound of the bucket the percentile falls in, in nanoseconds
+	 */
+	protected long percentile(int stage, double percentile)
+	{
+		long count = this.files.get(stage);
+		if (count == 0)
+		{
+			return 0;
+		}
+		
+		long target = (long) Math.ceil(count * percentile);
+		long seen = 0;
+		
+		for (int bucket = 0; bucket < BUCKETS; bucket++)
+		{
+			seen += this.histograms.get(stage * BUCKETS + bucket);
+			
+			if (seen >= target)
+			{
+				return bucket >= 62 ? Long.MAX_VALUE : 1L << (bucket + 1);
+			}
+		}
+		
+		return Long.MAX_VALUE;
+	}
+	
+	/**
+	 * The histogram bucket for a duration: the position of its highest bit.
+	 */
+	protected static int bucket(long nanos)
+	{
+		return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+	}
+}
@@ -0,0 +1,75 @@
+package com.blakeharley.fileworker.worker;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+
+/**
+ * Appends every metrics snapshot to a file as a line of JSON, for looking at a run
+ * after the fact or feeding into something that draws graphs. The file stays open across
+ * jobs, e.g. every batch of a watcher, until it's closed.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class MetricsExporter implements Metrics.Listener, Closeable
+{
+	protected Writer writer;
+	
+	/**
+	 * Set once the exporter is closed, or writing has failed so we don't keep trying every tick.
+	 */
+	protected boolean closed = false;
+	
+	/**
+	 * Opens the given file for appending.
+	 * 
+	 * @param file Where the snapshots go
+	 * @throws IOException
+	 */
+	public MetricsExporter(File file) throws IOException
+	{
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+		{
+			throw new IOException("Could not create " + parent.getAbsolutePath());
+		}
+		
+		this.writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), Charset.forName("UTF-8")));
+	}
+	
+	@Override
+	public synchronized void metricsUpdated(Metrics.Snapshot snapshot)
+	{
+		if (this.closed)
+		{
+			return;
+		}
+		
+		try
+		{
+			this.writer.write("{\"time\":" + System.currentTimeMillis() + ",\"finished\":" + snapshot.finished
+				+ "," + snapshot.toJsonMembers() + "}");
+			this.writer.write(System.lineSeparator());
+			this.writer.flush();
+		}
+		catch (IOException e)
+		{
+			this.closed = true;
+		}
+	}
+	
+	/**
+	 * Closes the file. Snapshots that come in afterwards are ignored.
+	 */
+	@Override
+	public synchronized void close() throws IOException
+	{
+		this.closed = true;
+		this.writer.close();
+	}
+}
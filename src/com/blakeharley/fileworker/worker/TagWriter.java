@@ -0,0 +1,193 @@
+package com.blakeharley.fileworker.worker;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+
+import org.jaudiotagger.tag.id3.AbstractID3v2Tag;
+
+import com.blakeharley.fileworker.utils.Id3Header;
+
+/**
+ * Writes ID3v2 tags straight into MP3 files, without going through AudioFile.commit()
+ * and the full rewrite that usually comes with it.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class TagWriter
+{
+	/**
+	 * Renders the given tag to bytes, header included.
+	 * 
+	 * @param tag The tag to render
+	 * @return The tag as it would appear at the start of a file
+	 * @throws IOException
+	 */
+	public static byte[] render(AbstractID3v2Tag tag) throws IOException
+	{
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		tag.write(Channels.newChannel(bytes));
+		
+		return bytes.toByteArray();
+	}
+	
+	/**
+	 * Copies an MP3 file while replacing its ID3v2 tag. The new tag is written first and
+	 * the rest of the source (audio and ID3v1 tag) is streamed behind it, so the audio is
+	 * read and written exactly once.
+	 * 
+	 * @param source The file to copy
+	 * @param tag The tag to give the copy
+	 * @param destination The copy, which will be overwritten if it exists
+	 * @throws IOException If the copy failed, or the destination is the source itself
+	 */
+	public static void copyWithTag(File source, AbstractID3v2Tag tag, File destination) throws IOException
+	{
+		// Opening the destination would truncate the very file we're about to read
+		if (isSameFile(source, destination))
+		{
+			throw new IOException("Can't copy " + source.getAbsolutePath() + " onto itself");
+		}
+		
+		byte[] bytes = render(tag);
+		
+		File parent = destination.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+		{
+			throw new IOException("Could not create " + parent.getAbsolutePath());
+		}
+		
+		FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		
+		try
+		{
+			FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			
+			try
+			{
+				Id3Header header = Id3Header.read(in);
+				
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				while (buffer.hasRemaining())
+				{
+					out.write(buffer);
+				}
+				
+				transfer(in, header.getAudioStart(), header.getFileSize(), out);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+	}
+	
+	/**
+	 * Checks whether two paths are the same file, hard links included.
+	 * 
+	 * @param a A file that exists
+	 * @param b A file that might not exist yet
+	 * @return True if writing to b would write to a
+	 * @throws IOException
+	 */
+	public static boolean isSameFile(File a, File b) throws IOException
+	{
+		return b.exists() && Files.isSameFile(a.toPath(), b.toPath());
+	}
+	
+	/**
+	 * Writes the given tag over the old one in place, turning any space left over into
+	 * padding. Only the tag region at the start of the file is written; the audio isn't
+	 * touched. This only works if the new tag fits in the space the old one took up.
+	 * 
+	 * @param file The MP3 file to update
+	 * @param tag The new tag
+	 * @return True if the tag was written, false if the file needs a full rewrite instead
+	 * @throws IOException
+	 */
+	public static boolean patch(File file, AbstractID3v2Tag tag) throws IOException
+	{
+		byte[] bytes = render(tag);
+		
+		// The extended header of an ID3v2.3 tag records the amount of padding, and a
+		// footer has to come right after the frames, so leave those to jaudiotagger
+		int flags = bytes.length >= Id3Header.HEADER_SIZE ? bytes[5] & 0xff : 0;
+		if (bytes.length < Id3Header.HEADER_SIZE || bytes[0] != 'I' || bytes[1] != 'D' || bytes[2] != '3'
+			|| (flags & (Id3Header.FLAG_EXTENDED_HEADER | Id3Header.FLAG_FOOTER)) != 0)
+		{
+			return false;
+		}
+		
+		// Any padding jaudiotagger added is going to be replaced by ours anyway
+		int length = bytes.length;
+		while (length > Id3Header.HEADER_SIZE && bytes[length - 1] == 0)
+		{
+			length--;
+		}
+		
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ, StandardOpenOption.WRITE);
+		
+		try
+		{
+			Id3Header header = Id3Header.read(channel);
+			long space = header.getTagSize();
+			
+			if (!header.hasId3v2() || length > space || space > header.getFileSize())
+			{
+				return false;
+			}
+			
+			// Same tag, bigger size: everything after the frames is padding
+			byte[] region = new byte[(int) space];
+			System.arraycopy(bytes, 0, region, 0, length);
+			Id3Header.writeSyncsafe((int) space - Id3Header.HEADER_SIZE, region, 6);
+			
+			ByteBuffer buffer = ByteBuffer.wrap(region);
+			while (buffer.hasRemaining())
+			{
+				channel.write(buffer, buffer.position());
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+		
+		return true;
+	}
+	
+	/**
+	 * Transfers a range of one channel to the current position of another, letting the
+	 * OS do the copying where it can.
+	 * 
+	 * @param in The channel to read from
+	 * @param from Where to start reading
+	 * @param to Where to stop reading
+	 * @param out The channel to append to
+	 * @throws IOException
+	 */
+	public static void transfer(FileChannel in, long from, long to, FileChannel out) throws IOException
+	{
+		while (from < to)
+		{
+			long sent = in.transferTo(from, to - from, out);
+			
+			if (sent <= 0)
+			{
+				throw new IOException("Source ended early");
+			}
+			
+			from += sent;
+		}
+	}
+}
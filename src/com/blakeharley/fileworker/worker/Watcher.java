@@ -0,0 +1,411 @@
+package com.blakeharley.fileworker.worker;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps an eye on a worker's library and works on new and changed files as they show
+ * up, e.g. a freshly ripped album, without going through the whole library again.
+ * 
+ * Every directory in the library is registered with the file system's watch service, so
+ * while nothing happens the watcher just sleeps. Ripping or copying a file sets off a burst
+ * of events, so a file only gets worked on once it's been left alone for a moment. A new
+ * directory, or the watch service losing track of events, means the affected directory
+ * is scanned again; the rest of the library isn't touched.
+ * 
+ * Writing a file in place sets off events of its own. The watcher remembers the size and
+ * modification time of every file it hands over, and doesn't work on a file again until
+ * one of them changes.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class Watcher
+{
+	/**
+	 * The directory the worker keeps its manifest and such in, which is never watched.
+	 */
+	protected static final String STATE_DIRECTORY = ".fileworker";
+	
+	/**
+	 * The worker to hand files to.
+	 */
+	protected AudioTagWorker worker;
+	
+	protected WatchService service;
+	
+	/**
+	 * The directory behind each registration.
+	 */
+	protected Map<WatchKey, Path> keys = new HashMap<WatchKey, Path>();
+	
+	/**
+	 * Files waiting for things to quiet down, with the time of their last event.
+	 */
+	protected Map<Path, Long> pending = new LinkedHashMap<Path, Long>();
+	
+	/**
+	 * How long a file has to be left alone before it's worked on, in milliseconds.
+	 */
+	protected long debounce = 2000;
+	
+	/**
+	 * What each file looked like right after the worker was done with it. The worker's own
+	 * writes set off events too, and a file that still looks like this hasn't been
+	 * touched by anyone else since.
+	 */
+	protected Map<Path, Stamp> processed = new HashMap<Path, Stamp>();
+	
+	/**
+	 * The size and modification time of a file.
+	 */
+	protected static class Stamp
+	{
+		final long size;
+		final FileTime modified;
+		
+		Stamp(BasicFileAttributes attributes)
+		{
+			this.size = attributes.size();
+			this.modified = attributes.lastModifiedTime();
+		}
+		
+		boolean matches(BasicFileAttributes attributes)
+		{
+			return this.size == attributes.size() && this.modified.equals(attributes.lastModifiedTime());
+		}
+	}
+	
+	/**
+	 * Creates a watcher for the given worker's library.
+	 * 
+	 * @param worker The worker to hand new and changed files to
+	 */
+	public Watcher(AudioTagWorker worker)
+	{
+		this.worker = worker;
+	}
+	
+	/**
+	 * Sets how long a file has to be left alone before it's worked on.
+	 * 
+	 * @param debounce The time in milliseconds
+	 */
+	public void setDebounce(long debounce)
+	{
+		if (debounce < 0)
+		{
+			throw new IllegalArgumentException("Debounce can't be negative");
+		}
+		
+		this.debounce = debounce;
+	}
+	
+	/**
+	 * Watches the library until stop() is called. Only files that are created or changed
+	 * from now on are worked on; run the worker first to catch up on anything older.
+	 * 
+	 * @throws IOException If the library can't be watched
+	 */
+	public void watch() throws IOException
+	{
+		File library = this.worker.cull.getDirectory();
+		
+		synchronized (this)
+		{
+			this.service = FileSystems.getDefault().newWatchService();
+		}
+		
+		this.register(library.toPath());
+		this.worker.log.log("Watching " + library.getAbsolutePath() + " for new music...");
+		
+		try
+		{
+			while (true)
+			{
+				WatchKey key;
+				
+				// With nothing to wait for, sleep until the file system has something to say
+				if (this.pending.isEmpty())
+				{
+					key = this.service.take();
+				}
+				else
+				{
+					key = this.service.poll(this.nextDue() - System.currentTimeMillis(), TimeUnit.MILLISECONDS);
+				}
+				
+				// Everything else that came in meanwhile
+				while (key != null)
+				{
+					this.handle(key);
+					key = this.service.poll();
+				}
+				
+				this.processDue();
+			}
+		}
+		catch (ClosedWatchServiceException e)
+		{
+			// Stopped
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			this.stop();
+		}
+	}
+	
+	/**
+	 * Stops watching. Safe to call from any thread.
+	 */
+	public synchronized void stop()
+	{
+		if (this.service == null)
+		{
+			return;
+		}
+		
+		try
+		{
+			this.service.close();
+		}
+		catch (IOException e)
+		{
+			// Nothing left to watch anyway
+		}
+	}
+	
+	/**
+	 * Goes through the events of a single directory.
+	 */
+	protected void handle(WatchKey key)
+	{
+		Path dir = this.keys.get(key);
+		
+		for (WatchEvent<?> event : key.pollEvents())
+		{
+			if (dir == null)
+			{
+				break;
+			}
+			
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+			{
+				// Events were lost, so anything in here might have changed
+				this.worker.log.log("Lost track of changes, looking through ", dir);
+				this.rescan(dir);
+				continue;
+			}
+			
+			Path path = dir.resolve((Path) event.context());
+			
+			if (Files.isDirectory(path))
+			{
+				// Whatever got put in before it was registered doesn't make a sound
+				if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && !path.endsWith(STATE_DIRECTORY))
+				{
+					this.register(path);
+					this.rescan(path);
+				}
+			}
+			else if (this.worker.cull.matches(path.getFileName().toString()) && !this.isOwnWrite(path))
+			{
+				this.touch(path);
+			}
+		}
+		
+		// The directory is gone
+		if (!key.reset())
+		{
+			this.keys.remove(key);
+		}
+	}
+	
+	/**
+	 * Registers the given directory and everything below it.
+	 */
+	protected void register(Path start)
+	{
+		try
+		{
+			Files.walkFileTree(start, new SimpleFileVisitor<Path>()
+			{
+				@Override
+				public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException
+				{
+					if (dir.endsWith(STATE_DIRECTORY))
+					{
+						return FileVisitResult.SKIP_SUBTREE;
+					}
+					
+					WatchKey key = dir.register(service, StandardWatchEventKinds.ENTRY_CREATE,
+						StandardWatchEventKinds.ENTRY_MODIFY);
+					keys.put(key, dir);
+					
+					return FileVisitResult.CONTINUE;
+				}
+				
+				@Override
+				public FileVisitResult visitFileFailed(Path file, IOException e)
+				{
+					return FileVisitResult.CONTINUE;
+				}
+			});
+		}
+		catch (IOException e)
+		{
+			// Usually the system's limit on watches; the rest still works
+			this.worker.log.log("Could not watch everything in " + start + ": " + e.getMessage());
+		}
+	}
+	
+	/**
+	 * Looks through a single directory tree for files, as if they had all just changed.
+	 * Files the worker already finished are skipped by the worker's manifest.
+	 */
+	protected void rescan(Path dir)
+	{
+		for (File file : this.worker.cull.claim(dir.toFile()))
+		{
+			this.touch(file.toPath());
+		}
+	}
+	
+	/**
+	 * Whether a file is just as the worker left it, so the event was the worker's own write
+	 * rather than something new.
+	 */
+	protected boolean isOwnWrite(Path file)
+	{
+		Stamp stamp = this.processed.get(file);
+		if (stamp == null)
+		{
+			return false;
+		}
+		
+		try
+		{
+			if (stamp.matches(Files.readAttributes(file, BasicFileAttributes.class)))
+			{
+				return true;
+			}
+		}
+		catch (IOException e)
+		{
+			// Gone again; let processDue() find out
+		}
+		
+		this.processed.remove(file);
+		
+		return false;
+	}
+	
+	/**
+	 * Notes what a file looks like now that the worker is done with it.
+	 */
+	protected void stamp(File file)
+	{
+		try
+		{
+			this.processed.put(file.toPath(), new Stamp(Files.readAttributes(file.toPath(), BasicFileAttributes.class)));
+		}
+		catch (IOException e)
+		{
+			// Moved away by the worker, or deleted; either way there's nothing to recognise
+			this.processed.remove(file.toPath());
+		}
+	}
+	
+	/**
+	 * Notes that something happened to a file, which pushes back when it's worked on.
+	 */
+	protected void touch(Path file)
+	{
+		this.pending.remove(file);
+		this.pending.put(file, System.currentTimeMillis());
+	}
+	
+	/**
+	 * When the next file will have been left alone long enough.
+	 */
+	protected long nextDue()
+	{
+		// Oldest event first, since touching a file moves it to the back
+		return this.pending.values().iterator().next() + this.debounce;
+	}
+	
+	/**
+	 * Works on the files that have been left alone long enough.
+	 */
+	protected void processDue()
+	{
+		long now = System.currentTimeMillis();
+		List<File> due = new ArrayList<File>();
+		
+		Iterator<Map.Entry<Path, Long>> it = this.pending.entrySet().iterator();
+		while (it.hasNext())
+		{
+			Map.Entry<Path, Long> entry = it.next();
+			if (entry.getValue() + this.debounce > now)
+			{
+				break;
+			}
+			
+			due.add(entry.getKey().toFile());
+			it.remove();
+		}
+		
+		if (due.isEmpty())
+		{
+			return;
+		}
+		
+		// Every batch is a job of its own, with its own progress and metrics
+		this.worker.log.log("Working on " + due.size() + " new or changed files...");
+		this.worker.filesDone.set(0);
+		this.worker.filesFailed.set(0);
+		this.worker.metrics.start();
+		this.worker.setFilesTotal(due.size());
+		
+		try
+		{
+			for (File file : due)
+			{
+				// It might have been deleted again while we waited
+				if (file.isFile())
+				{
+					this.worker.process(file);
+					this.stamp(file);
+				}
+			}
+			
+			this.worker.saveManifest();
+		}
+		finally
+		{
+			this.worker.metrics.finish();
+		}
+	}
+}
@@ -33,6 +33,14 @@ public interface Worker
 	 */
 	public String getProgressString();
 	
+	/**
+	 * Counts what the worker gets done and how long it takes. Add a listener to be told
+	 * about progress while the worker runs instead of polling.
+	 * 
+	 * @return The worker's metrics
+	 */
+	public Metrics getMetrics();
+	
 	/**
 	 * The worker can use the logger to communicate messages back to the user via the text area.
 	 * 
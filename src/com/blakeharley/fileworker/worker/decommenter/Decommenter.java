@@ -1,23 +1,18 @@
 package com.blakeharley.fileworker.worker.decommenter;
 
 import java.io.File;
-import java.util.ArrayList;
 
-import org.jaudiotagger.audio.AudioFile;
 import org.jaudiotagger.tag.FieldKey;
 import org.jaudiotagger.tag.Tag;
 
 import com.blakeharley.fileworker.utils.Cull;
+import com.blakeharley.fileworker.utils.Id3Scan;
 import com.blakeharley.fileworker.worker.AudioTagWorker;
+import com.blakeharley.fileworker.worker.pipeline.TrackJob;
 
 
 public class Decommenter extends AudioTagWorker
 {
-	/**
-	 * The instance of the culler.
-	 */
-	protected Cull cull;
-	
 	/**
 	 * Creates a new instance of this worker.
 	 * 
@@ -29,39 +24,54 @@ public class Decommenter extends AudioTagWorker
 		this.cull = new Cull(path);
 	}
 
+	/**
+	 * Only files whose tag has a comment frame are worth parsing. jaudiotagger reads
+	 * comments from the ID3v1 tag when there's no ID3v2 tag, so check that too.
+	 */
 	@Override
-	public void doWork()
+	protected boolean needsWork(File file)
 	{
-		log.log("Scanning directories for music...");
-		this.progressString = "Scanning directories for music...";
-		ArrayList<File> files = this.cull.claim();
-		this.filesTotal = files.size();
-		log.log("Erasing IDv3 comments...");
-		this.progressString = null;
+		Id3Scan scan = this.scanTags(file);
+		
+		if (scan == null)
+		{
+			return true;
+		}
+		
+		if (scan.hasId3v2())
+		{
+			return scan.mayHaveFrame("COMM", "COM");
+		}
 		
-		this.filesDone = 0;
-		for (File file : files)
+		return scan.hasId3v1Comment();
+	}
+	
+	@Override
+	protected boolean transform(TrackJob job)
+	{
+		Tag tag = job.getAudioFile().getTag();
+		if (!tag.hasField(FieldKey.COMMENT) && !tag.hasField("Comments"))
 		{
-			try
-			{
-				this.filesDone++;
-				// Get the audio and tag files
-				AudioFile audioFile = this.getAudioFile(file);
-				Tag tag = audioFile.getTag();
-				if (tag.hasField(FieldKey.COMMENT) || tag.hasField("Comments"))
-				{
-    				tag.deleteField(FieldKey.COMMENT);
-    				tag.deleteField("Comments");
-    				audioFile.commit();
-				}
-			}
-			catch (Exception e)
-			{
-				log.log("Tag could not be read: " + file.getAbsolutePath());
-			}
+			return false;
 		}
 		
-		log.log("Done.");
+		tag.deleteField(FieldKey.COMMENT);
+		tag.deleteField("Comments");
+		job.setChanged(true);
+		
+		return true;
+	}
+	
+	@Override
+	protected void write(TrackJob job) throws Exception
+	{
+		this.commit(job.getAudioFile());
+	}
+	
+	@Override
+	protected String getStartMessage()
+	{
+		return "Erasing IDv3 comments...";
 	}
 
 	@Override
@@ -0,0 +1,90 @@
+package com.blakeharley.fileworker.worker.indexer;
+
+import java.io.File;
+import java.io.IOException;
+
+import com.blakeharley.fileworker.utils.Cull;
+import com.blakeharley.fileworker.utils.TagIndex;
+import com.blakeharley.fileworker.worker.AudioTagWorker;
+import com.blakeharley.fileworker.worker.pipeline.TrackJob;
+
+
+/**
+ * This worker keeps the tag index of a library up to date. Only files that are new or
+ * changed since the last run are read; files that are gone are dropped from the index.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class Indexer extends AudioTagWorker
+{
+	/**
+	 * The index to keep up to date.
+	 */
+	protected TagIndex index;
+	
+	/**
+	 * Creates a new instance of this worker.
+	 * 
+	 * @param path The location to look in for files
+	 * @param index The index to keep up to date
+	 */
+	public Indexer(String path, TagIndex index)
+	{
+		this.cull = new Cull(path);
+		this.index = index;
+	}
+	
+	@Override
+	public void doWork()
+	{
+		this.index.startRefresh();
+		super.doWork();
+		
+		int dropped = this.index.finishRefresh();
+		log.log("Indexed " + this.index.size() + " files, dropped " + dropped + " that are gone.");
+		
+		try
+		{
+			this.index.save();
+		}
+		catch (IOException e)
+		{
+			log.log("Index could not be saved: " + this.index.getFile().getAbsolutePath());
+		}
+	}
+	
+	/**
+	 * Files that haven't changed since they were indexed aren't read again.
+	 */
+	@Override
+	protected boolean needsWork(File file)
+	{
+		return this.index.get(file) == null;
+	}
+	
+	@Override
+	protected boolean transform(TrackJob job)
+	{
+		this.index.put(job.getFile(), job.getAudioFile().getTag());
+		
+		// Nothing is ever written
+		return false;
+	}
+	
+	@Override
+	protected void write(TrackJob job)
+	{
+	}
+	
+	@Override
+	protected String getStartMessage()
+	{
+		return "Indexing tags...";
+	}
+	
+	@Override
+	public String getName()
+	{
+		return "Indexer";
+	}
+}
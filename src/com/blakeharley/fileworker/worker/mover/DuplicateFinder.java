@@ -0,0 +1,283 @@
+package com.blakeharley.fileworker.worker.mover;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import com.blakeharley.fileworker.utils.HashCache;
+import com.blakeharley.fileworker.utils.Id3Header;
+
+/**
+ * Finds tracks with the exact same audio, no matter how different their tags are.
+ * 
+ * Only the audio between the ID3v2 and ID3v1 tags is compared. Files are first grouped
+ * by the size of their audio, which only takes a look at the tag headers; a file with
+ * audio of a size nobody else has can't be a duplicate and is never read. The rest are
+ * hashed through memory mapped reads, on as many threads as the executor has.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class DuplicateFinder
+{
+	/**
+	 * How much of a file is mapped at a time. Keeps the address space in check for
+	 * huge files on 32 bit JVMs.
+	 */
+	protected static final long WINDOW = 64L * 1024 * 1024;
+	
+	protected static final char[] HEX = "0123456789abcdef".toCharArray();
+	
+	/**
+	 * Runs the reads and hashes.
+	 */
+	protected ExecutorService executor;
+	
+	/**
+	 * Sizes and hashes of earlier runs, or null to read everything.
+	 */
+	protected HashCache cache;
+	
+	/**
+	 * Creates a finder that works on the given executor.
+	 * 
+	 * @param executor Runs the reads and hashes; it's left running afterwards
+	 * @param cache Sizes and hashes of earlier runs, or null
+	 */
+	public DuplicateFinder(ExecutorService executor, HashCache cache)
+	{
+		this.executor = executor;
+		this.cache = cache;
+	}
+	
+	/**
+	 * Finds the files whose audio is the same as that of another file. In every set of
+	 * identical files, the first one by path is the original. Files that can't be read
+	 * are never duplicates.
+	 * 
+	 * @param files The files to look through
+	 * @return Every duplicate, mapped to its original
+	 * @throws InterruptedException
+	 */
+	public Map<File, File> find(List<File> files) throws InterruptedException
+	{
+		// Audio of a size nobody else has can't be a duplicate
+		List<Future<Long>> sizes = new ArrayList<Future<Long>>(files.size());
+		for (final File file : files)
+		{
+			sizes.add(this.executor.submit(new Callable<Long>()
+			{
+				@Override
+				public Long call() throws Exception
+				{
+					return getAudioSize(file);
+				}
+			}));
+		}
+		
+		Map<Long, List<File>> bySize = new HashMap<Long, List<File>>();
+		for (int i = 0; i < files.size(); i++)
+		{
+			Long size = this.get(sizes.get(i));
+			
+			if (size != null && size > 0)
+			{
+				this.add(bySize, size, files.get(i));
+			}
+		}
+		
+		// Hash whatever is left
+		List<File> candidates = new ArrayList<File>();
+		List<Future<String>> hashes = new ArrayList<Future<String>>();
+		for (Map.Entry<Long, List<File>> group : bySize.entrySet())
+		{
+			if (group.getValue().size() < 2)
+			{
+				continue;
+			}
+			
+			for (final File file : group.getValue())
+			{
+				final long size = group.getKey();
+				
+				candidates.add(file);
+				hashes.add(this.executor.submit(new Callable<String>()
+				{
+					@Override
+					public String call() throws Exception
+					{
+						return getAudioHash(file, size);
+					}
+				}));
+			}
+		}
+		
+		Map<String, List<File>> byHash = new HashMap<String, List<File>>();
+		for (int i = 0; i < candidates.size(); i++)
+		{
+			String hash = this.get(hashes.get(i));
+			
+			if (hash != null)
+			{
+				this.add(byHash, hash, candidates.get(i));
+			}
+		}
+		
+		Map<File, File> duplicates = new HashMap<File, File>();
+		for (List<File> group : byHash.values())
+		{
+			Collections.sort(group);
+			
+			for (int i = 1; i < group.size(); i++)
+			{
+				duplicates.put(group.get(i), group.get(0));
+			}
+		}
+		
+		return duplicates;
+	}
+	
+	/**
+	 * Gets the size of the file's audio, from the cache if it's there.
+	 */
+	protected long getAudioSize(File file) throws IOException
+	{
+		HashCache.Entry entry = this.cache == null ? null : this.cache.get(file);
+		if (entry != null)
+		{
+			return entry.audioSize;
+		}
+		
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		long size;
+		
+		try
+		{
+			Id3Header header = Id3Header.read(channel);
+			size = header.getAudioEnd() - header.getAudioStart();
+		}
+		finally
+		{
+			channel.close();
+		}
+		
+		if (this.cache != null)
+		{
+			this.cache.put(file, size, null);
+		}
+		
+		return size;
+	}
+	
+	/**
+	 * Gets the hash of the file's audio, from the cache if it's there.
+	 */
+	protected String getAudioHash(File file, long audioSize) throws IOException
+	{
+		HashCache.Entry entry = this.cache == null ? null : this.cache.get(file);
+		if (entry != null && entry.hash != null)
+		{
+			return entry.hash;
+		}
+		
+		String hash = hashAudio(file);
+		
+		if (this.cache != null)
+		{
+			this.cache.put(file, audioSize, hash);
+		}
+		
+		return hash;
+	}
+	
+	/**
+	 * Hashes the audio of an MP3 file, leaving out its ID3 tags.
+	 * 
+	 * @param file An MP3 file
+	 * @return The SHA-256 of the audio, in hex
+	 * @throws IOException
+	 */
+	public static String hashAudio(File file) throws IOException
+	{
+		MessageDigest digest;
+		try
+		{
+			digest = MessageDigest.getInstance("SHA-256");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every JVM has to have it
+			throw new IllegalStateException(e);
+		}
+		
+		FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+		
+		try
+		{
+			Id3Header header = Id3Header.read(channel);
+			long end = header.getAudioEnd();
+			
+			for (long position = header.getAudioStart(); position < end; position += WINDOW)
+			{
+				digest.update(channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW, end - position)));
+			}
+		}
+		finally
+		{
+			channel.close();
+		}
+		
+		byte[] bytes = digest.digest();
+		char[] hex = new char[bytes.length * 2];
+		for (int i = 0; i < bytes.length; i++)
+		{
+			hex[i * 2] = HEX[(bytes[i] >> 4) & 0xf];
+			hex[i * 2 + 1] = HEX[bytes[i] & 0xf];
+		}
+		
+		return new String(hex);
+	}
+	
+	/**
+	 * Waits for a read to finish.
+	 * 
+	 * @return Its result, or null if the file couldn't be read
+	 */
+	protected <T> T get(Future<T> future) throws InterruptedException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			return null;
+		}
+	}
+	
+	/**
+	 * Adds a file to its group.
+	 */
+	protected <K> void add(Map<K, List<File>> groups, K key, File file)
+	{
+		List<File> group = groups.get(key);
+		if (group == null)
+		{
+			group = new ArrayList<File>();
+			groups.put(key, group);
+		}
+		
+		group.add(file);
+	}
+}
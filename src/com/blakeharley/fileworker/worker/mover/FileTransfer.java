@@ -0,0 +1,313 @@
+package com.blakeharley.fileworker.worker.mover;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.jaudiotagger.tag.id3.AbstractID3v2Tag;
+
+import com.blakeharley.fileworker.worker.TagWriter;
+
+/**
+ * Gets files from one place to another as cheaply as the file systems involved allow.
+ * Within a single volume a file can be renamed or hard linked instead of copied; across
+ * volumes it is copied with FileChannel.transferTo so the kernel does the work. If the
+ * cheap way fails for whatever reason, we fall back to copying.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class FileTransfer
+{
+	/**
+	 * What to do with the original file.
+	 */
+	public enum Mode
+	{
+		/**
+		 * Always copy. The original is left alone.
+		 */
+		COPY,
+		
+		/**
+		 * Hard link on the same volume, copy otherwise. The original is left alone, but
+		 * shares its data with the destination. Files whose tag changes are copied, so the
+		 * original's tag is never touched.
+		 */
+		LINK,
+		
+		/**
+		 * Rename on the same volume, copy and delete otherwise. The original is gone afterwards.
+		 */
+		MOVE
+	}
+	
+	/**
+	 * What to do with the original file.
+	 */
+	protected Mode mode;
+	
+	/**
+	 * The file store of every directory we've seen. Looking up a file store can mean
+	 * reading the whole mount table, so we only want to do it once per directory.
+	 */
+	protected Map<Path, FileStore> stores = new ConcurrentHashMap<Path, FileStore>();
+	
+	/**
+	 * Whether the destination's directory is checked and created for every file.
+	 */
+	protected boolean createParents = true;
+	
+	/**
+	 * Creates a new transfer with the given mode.
+	 * 
+	 * @param mode What to do with the original files
+	 */
+	public FileTransfer(Mode mode)
+	{
+		this.mode = mode;
+	}
+	
+	/**
+	 * What happens to the original files.
+	 * 
+	 * @return The mode
+	 */
+	public Mode getMode()
+	{
+		return this.mode;
+	}
+	
+	/**
+	 * Sets whether the destination's directory is checked and created for every file.
+	 * Turn this off when the directories have all been created up front, e.g. by a
+	 * MovePlan.
+	 * 
+	 * @param createParents False if the directories already exist
+	 */
+	public void setCreateParents(boolean createParents)
+	{
+		this.createParents = createParents;
+	}
+	
+	/**
+	 * Gets the file unchanged to its destination, replacing anything already there.
+	 * 
+	 * @param source The file to transfer
+	 * @param destination Where it should end up
+	 * @throws IOException
+	 */
+	public void transfer(File source, File destination) throws IOException
+	{
+		this.transfer(source, destination, false);
+	}
+	
+	/**
+	 * Gets the file unchanged to its destination, replacing anything already there. A file
+	 * that is already its own destination is left alone.
+	 * 
+	 * @param source The file to transfer
+	 * @param destination Where it should end up
+	 * @param editable True if the destination is going to be written to, so it mustn't be
+	 *                 a link to the original
+	 * @throws IOException
+	 */
+	public void transfer(File source, File destination, boolean editable) throws IOException
+	{
+		// Copying would truncate it and linking would delete it, e.g. in an organised library
+		if (TagWriter.isSameFile(source, destination))
+		{
+			return;
+		}
+		
+		this.createParent(destination);
+		
+		boolean cheap = this.mode == Mode.MOVE || (this.mode == Mode.LINK && !editable);
+		
+		if (cheap && this.isSameStore(source, destination))
+		{
+			try
+			{
+				if (this.mode == Mode.MOVE)
+				{
+					Files.move(source.toPath(), destination.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				}
+				else
+				{
+					Files.deleteIfExists(destination.toPath());
+					Files.createLink(destination.toPath(), source.toPath());
+				}
+				
+				return;
+			}
+			catch (IOException e)
+			{
+				// Links might not be supported here, so copy instead
+			}
+			catch (UnsupportedOperationException e)
+			{
+				// Same as above
+			}
+		}
+		
+		this.copy(source, destination);
+		
+		if (this.mode == Mode.MOVE)
+		{
+			Files.delete(source.toPath());
+		}
+	}
+	
+	/**
+	 * Gets the file to its destination with a new ID3v2 tag. The audio is never read or
+	 * written more than once. When moving within a volume, the tag is patched in place
+	 * first so the file can simply be renamed. A file that is already its own destination
+	 * gets the tag in place.
+	 * 
+	 * @param source The file to transfer, which still has its old tag
+	 * @param tag The tag the destination should have
+	 * @param destination Where it should end up
+	 * @throws IOException
+	 */
+	public void transferWithTag(File source, AbstractID3v2Tag tag, File destination) throws IOException
+	{
+		if (TagWriter.isSameFile(source, destination))
+		{
+			this.rewriteWithTag(source, tag);
+			return;
+		}
+		
+		this.createParent(destination);
+		
+		if (this.mode == Mode.MOVE && this.isSameStore(source, destination) && TagWriter.patch(source, tag))
+		{
+			this.transfer(source, destination);
+			return;
+		}
+		
+		TagWriter.copyWithTag(source, tag, destination);
+		
+		if (this.mode == Mode.MOVE)
+		{
+			Files.delete(source.toPath());
+		}
+	}
+	
+	/**
+	 * Gives the file a new tag where it is. If the tag doesn't fit, a copy with the new tag
+	 * is written next to it and renamed over it, so the original is never half written.
+	 */
+	protected void rewriteWithTag(File file, AbstractID3v2Tag tag) throws IOException
+	{
+		if (TagWriter.patch(file, tag))
+		{
+			return;
+		}
+		
+		File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		
+		try
+		{
+			TagWriter.copyWithTag(file, tag, temp);
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		}
+		finally
+		{
+			Files.deleteIfExists(temp.toPath());
+		}
+	}
+	
+	/**
+	 * Whether the file can be renamed or linked to the destination instead of copied.
+	 * 
+	 * @param source The file to transfer
+	 * @param destination Where it should end up
+	 * @return True if both are on the same volume
+	 */
+	public boolean isSameStore(File source, File destination)
+	{
+		try
+		{
+			return this.getStore(source).equals(this.getStore(destination));
+		}
+		catch (IOException e)
+		{
+			return false;
+		}
+	}
+	
+	/**
+	 * Copies the file with the kernel doing the work where it can. The modification time
+	 * is kept, like a regular copy would.
+	 * 
+	 * @param source The file to copy
+	 * @param destination The copy
+	 * @throws IOException
+	 */
+	protected void copy(File source, File destination) throws IOException
+	{
+		FileChannel in = FileChannel.open(source.toPath(), StandardOpenOption.READ);
+		
+		try
+		{
+			FileChannel out = FileChannel.open(destination.toPath(), StandardOpenOption.WRITE,
+				StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+			
+			try
+			{
+				TagWriter.transfer(in, 0, in.size(), out);
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		finally
+		{
+			in.close();
+		}
+		
+		destination.setLastModified(source.lastModified());
+	}
+	
+	/**
+	 * Gets the file store of the directory the given file is in.
+	 */
+	protected FileStore getStore(File file) throws IOException
+	{
+		Path dir = file.getAbsoluteFile().getParentFile().toPath();
+		FileStore store = this.stores.get(dir);
+		
+		if (store == null)
+		{
+			store = Files.getFileStore(dir);
+			this.stores.put(dir, store);
+		}
+		
+		return store;
+	}
+	
+	/**
+	 * Makes sure the directory the given file goes in exists.
+	 */
+	protected void createParent(File file) throws IOException
+	{
+		if (!this.createParents)
+		{
+			return;
+		}
+		
+		File parent = file.getAbsoluteFile().getParentFile();
+		
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+		{
+			throw new IOException("Could not create " + parent.getAbsolutePath());
+		}
+	}
+}
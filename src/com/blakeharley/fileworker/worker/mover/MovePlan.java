@@ -0,0 +1,272 @@
+package com.blakeharley.fileworker.worker.mover;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Where every file of a library is going to end up, worked out before anything is moved.
+ * 
+ * Two tracks can easily come out with the same new name, e.g. the same song on a single
+ * and on the album with a missing disc number. Instead of the second one overwriting the
+ * first, resolve() gives every file after the first a numbered name: "01 - Song (2).mp3".
+ * Names are compared ignoring case, since the library might end up on a file system that
+ * does the same.
+ * 
+ * A plan can be saved to look over before running it, or to run it again later. The file
+ * is plain text with a header line and then one file per line:
+ * 
+ *   source  destination
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class MovePlan
+{
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	protected static final String HEADER = "# FileWorker move plan v1";
+	
+	/**
+	 * Where each file goes, ordered by source so the plan comes out the same every time.
+	 */
+	protected TreeMap<File, File> moves = new TreeMap<File, File>();
+	
+	/**
+	 * The number of files that had to be renamed to avoid overwriting another one.
+	 */
+	protected int collisions = 0;
+	
+	/**
+	 * Adds a file to the plan. Call resolve() once every file is in. Safe to call from
+	 * several threads at once.
+	 * 
+	 * @param source The file as it is now
+	 * @param destination Where it should go
+	 */
+	public synchronized void add(File source, File destination)
+	{
+		this.moves.put(source.getAbsoluteFile(), destination.getAbsoluteFile());
+	}
+	
+	/**
+	 * Renames any files that would end up on top of each other. The first file in source
+	 * order keeps its name.
+	 */
+	public synchronized void resolve()
+	{
+		Map<String, File> taken = new HashMap<String, File>();
+		this.collisions = 0;
+		
+		for (Map.Entry<File, File> move : this.moves.entrySet())
+		{
+			File destination = move.getValue();
+			
+			for (int n = 2; taken.containsKey(key(destination)); n++)
+			{
+				destination = numbered(move.getValue(), n);
+			}
+			
+			if (destination != move.getValue())
+			{
+				this.collisions++;
+				move.setValue(destination);
+			}
+			
+			taken.put(key(destination), move.getKey());
+		}
+	}
+	
+	/**
+	 * Where the given file goes.
+	 * 
+	 * @param source The file as it is now
+	 * @return Its destination, or null if the file isn't part of the plan
+	 */
+	public synchronized File getDestination(File source)
+	{
+		return this.moves.get(source.getAbsoluteFile());
+	}
+	
+	/**
+	 * Whether the given file is part of the plan.
+	 * 
+	 * @param source The file as it is now
+	 * @return True if the plan moves it
+	 */
+	public synchronized boolean contains(File source)
+	{
+		return this.moves.containsKey(source.getAbsoluteFile());
+	}
+	
+	/**
+	 * The number of files in the plan.
+	 * 
+	 * @return Files planned
+	 */
+	public synchronized int size()
+	{
+		return this.moves.size();
+	}
+	
+	/**
+	 * The number of files that got a numbered name the last time the plan was resolved.
+	 * 
+	 * @return Files renamed
+	 */
+	public synchronized int getCollisions()
+	{
+		return this.collisions;
+	}
+	
+	/**
+	 * Creates every directory the plan puts files in, each one once, so the files can
+	 * be moved without checking their directory first.
+	 * 
+	 * @return The number of directories that had to be created
+	 * @throws IOException If a directory couldn't be created
+	 */
+	public synchronized int createDirectories() throws IOException
+	{
+		// Sorted, so parents come before their subdirectories
+		TreeSet<File> dirs = new TreeSet<File>();
+		for (File destination : this.moves.values())
+		{
+			dirs.add(destination.getParentFile());
+		}
+		
+		int created = 0;
+		for (File dir : dirs)
+		{
+			if (dir.mkdirs())
+			{
+				created++;
+			}
+			else if (!dir.isDirectory())
+			{
+				throw new IOException("Could not create " + dir.getPath());
+			}
+		}
+		
+		return created;
+	}
+	
+	/**
+	 * Writes the plan to disk. An old plan is only replaced once the new one has been
+	 * written completely.
+	 * 
+	 * @param file Where to save the plan
+	 * @throws IOException
+	 */
+	public synchronized void save(File file) throws IOException
+	{
+		File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs())
+		{
+			throw new IOException("Could not create " + parent.getAbsolutePath());
+		}
+		
+		File temp = new File(parent, file.getName() + ".tmp");
+		BufferedWriter writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temp), UTF8));
+		
+		try
+		{
+			writer.write(HEADER);
+			writer.newLine();
+			
+			for (Map.Entry<File, File> move : this.moves.entrySet())
+			{
+				writer.write(move.getKey().getPath() + "\t" + move.getValue().getPath());
+				writer.newLine();
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+		
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Reads a saved plan. It may have been edited by hand, so it is resolved again in
+	 * case two files now go to the same place.
+	 * 
+	 * @param file The saved plan
+	 * @return The plan
+	 * @throws IOException If the file can't be read or isn't a plan
+	 */
+	public static MovePlan load(File file) throws IOException
+	{
+		MovePlan plan = new MovePlan();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+		
+		try
+		{
+			if (!HEADER.equals(reader.readLine()))
+			{
+				throw new IOException("Not a move plan: " + file.getPath());
+			}
+			
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				if (line.length() == 0)
+				{
+					continue;
+				}
+				
+				String[] parts = line.split("\t", 2);
+				if (parts.length != 2)
+				{
+					throw new IOException("Bad line in move plan: " + line);
+				}
+				
+				plan.add(new File(parts[0]), new File(parts[1]));
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		
+		plan.resolve();
+		
+		return plan;
+	}
+	
+	/**
+	 * The destination with a number added to the name, e.g. "01 - Song (2).mp3".
+	 */
+	protected static File numbered(File destination, int n)
+	{
+		String name = destination.getName();
+		int dot = name.lastIndexOf('.');
+		
+		if (dot <= 0)
+		{
+			return new File(destination.getParentFile(), name + " (" + n + ")");
+		}
+		
+		return new File(destination.getParentFile(), name.substring(0, dot) + " (" + n + ")" + name.substring(dot));
+	}
+	
+	/**
+	 * What two destinations have in common if they'd end up as the same file.
+	 */
+	protected static String key(File destination)
+	{
+		return destination.getPath().toLowerCase();
+	}
+}
@@ -1,16 +1,25 @@
 package com.blakeharley.fileworker.worker.mover;
 
 import java.io.File;
-import java.util.ArrayList;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
-import org.apache.commons.io.FileUtils;
 import org.jaudiotagger.audio.AudioFile;
 import org.jaudiotagger.tag.FieldKey;
 import org.jaudiotagger.tag.Tag;
+import org.jaudiotagger.tag.id3.AbstractID3v2Tag;
 
 import com.blakeharley.fileworker.utils.Cull;
+import com.blakeharley.fileworker.utils.HashCache;
 import com.blakeharley.fileworker.utils.StringExt;
+import com.blakeharley.fileworker.utils.TagIndex;
 import com.blakeharley.fileworker.worker.AudioTagWorker;
+import com.blakeharley.fileworker.worker.TagWriter;
+import com.blakeharley.fileworker.worker.pipeline.TrackJob;
 
 
 /**
@@ -20,17 +29,100 @@ import com.blakeharley.fileworker.worker.AudioTagWorker;
  */
 public class Mover extends AudioTagWorker
 {
-	
 	/**
-	 * The instance of the culler.
+	 * What to do with tracks whose audio is the same as another track's.
 	 */
-	protected Cull cull;
+	public enum DuplicateMode
+	{
+		/**
+		 * Don't look for duplicates, every file gets moved.
+		 */
+		KEEP,
+		
+		/**
+		 * Leave duplicates where they are. Only the original is moved.
+		 */
+		SKIP,
+		
+		/**
+		 * Put a hard link to the moved original where each duplicate would have gone, so
+		 * the audio is only stored once.
+		 */
+		LINK
+	}
 	
 	/**
 	 * The place to relocate all this wonderful music to.
 	 */
 	protected String newLocation;
 	
+	/**
+	 * Whether the cleaned up tag is written while copying.
+	 */
+	protected boolean singlePass = true;
+	
+	/**
+	 * Gets the files to their new home.
+	 */
+	protected FileTransfer transfer = new FileTransfer(FileTransfer.Mode.COPY);
+	
+	/**
+	 * Where every file goes, or null to work it out file by file.
+	 */
+	protected MovePlan plan;
+	
+	/**
+	 * Whether a run only works out the plan, without moving anything.
+	 */
+	protected boolean planOnly = false;
+	
+	/**
+	 * What to do with duplicates.
+	 */
+	protected DuplicateMode duplicateMode = DuplicateMode.KEEP;
+	
+	/**
+	 * Audio sizes and hashes of earlier runs, or null to read every file.
+	 */
+	protected HashCache hashCache;
+	
+	/**
+	 * The tag index to plan from, or null to read every file's tags.
+	 */
+	protected TagIndex tagIndex;
+	
+	/**
+	 * Every duplicate found this run, mapped to its original.
+	 */
+	protected Map<File, File> duplicates;
+	
+	/**
+	 * Where the originals ended up this run, by their old location.
+	 */
+	protected Map<File, File> moved = new ConcurrentHashMap<File, File>();
+	
+	/**
+	 * Links still to be made once the originals have been moved, from a duplicate to
+	 * where its link goes.
+	 */
+	protected Map<File, File> links = new ConcurrentHashMap<File, File>();
+	
+	/**
+	 * Links a run that died didn't get to make, or null if there are none.
+	 */
+	protected PendingLinks resumedLinks;
+	
+	/**
+	 * The destinations taken so far this run when there's no plan, by MovePlan.key(), and
+	 * the file each one belongs to.
+	 */
+	protected ConcurrentMap<String, File> claimed = new ConcurrentHashMap<String, File>();
+	
+	/**
+	 * The number of files that got a numbered name this run because theirs was taken.
+	 */
+	protected AtomicInteger collisions = new AtomicInteger();
+	
 	/**
 	 * Creates a new instance of this worker.
 	 * 
@@ -43,107 +135,605 @@ public class Mover extends AudioTagWorker
 		this.newLocation = newLocation;
 	}
 	
+	/**
+	 * Goes through the library. With a plan, the directories it needs are all created
+	 * first and the files go where it says; when only planning, nothing is moved and the
+	 * new plan can be had from getPlan() afterwards.
+	 * 
+	 * Without a plan, tracks that come out with the same new name are numbered as they're
+	 * reached, like a plan would. Which one keeps the plain name then depends on the order
+	 * the files were found in, so save a plan first to look over and control that.
+	 */
 	@Override
 	public void doWork()
 	{
-		log.log("Scanning directories for music...");
-		this.progressString = "Scanning directories for music...";
-		ArrayList<File> files = this.cull.claim();
-		this.filesTotal = files.size();
-		log.log("Starting file transfer...");
-		this.progressString = null;
+		if (this.planOnly)
+		{
+			this.plan = new MovePlan();
+			super.doWork();
+			this.plan.resolve();
+			
+			log.log("Planned " + this.plan.size() + " files, " + this.plan.getCollisions()
+				+ " of them renamed so they don't overwrite each other.");
+			return;
+		}
 		
-		this.filesDone = 0;
-		for (File file : files)
+		// The directories are created up front, so there's no need to check them for every file
+		boolean created = false;
+		if (this.plan != null)
 		{
 			try
 			{
-				this.filesDone++;
-				// Get the audio and tag files
-				AudioFile audioFile = this.getAudioFile(file);
-				
-				// Get the new absolute file name
-				String newFileName = this.generateFileName(audioFile);
-				
-				// Copy the file into its new home
-				File newFile = this.copyFile(file, newFileName);
-				
-				// If there was an error, move along
-				if (newFile == null)
+				log.log("Created " + this.plan.createDirectories() + " directories.");
+				created = true;
+			}
+			catch (IOException e)
+			{
+				log.log("Could not create the new directories up front: " + e.getMessage());
+			}
+		}
+		this.transfer.setCreateParents(!created);
+		
+		this.claimed.clear();
+		this.collisions.set(0);
+		
+		this.resumedLinks = this.loadPendingLinks();
+		this.findDuplicates();
+		
+		// Links are made at the end of the work, while the journal is still open
+		super.doWork();
+		
+		if (this.collisions.get() > 0)
+		{
+			log.log("Renamed " + this.collisions.get() + " files so they don't overwrite each other.");
+		}
+	}
+	
+	/**
+	 * With a plan, only the files in it are moved. They're skipped without being parsed.
+	 */
+	@Override
+	protected boolean needsWork(File file)
+	{
+		if (this.planOnly)
+		{
+			// Files the index knows about are planned without being parsed
+			TagIndex.Entry entry = this.tagIndex == null ? null : this.tagIndex.get(file);
+			if (entry != null)
+			{
+				this.plan.add(file, new File(this.generateFileName(entry)));
+				return false;
+			}
+			
+			return true;
+		}
+		
+		// Left over from a run that died while linking; it's linked at the end
+		if (this.resumedLinks != null && this.resumedLinks.contains(file))
+		{
+			return false;
+		}
+		
+		return this.plan == null || this.plan.contains(file);
+	}
+	
+	/**
+	 * Links the duplicates once every original has been moved.
+	 */
+	@Override
+	protected void finishWork()
+	{
+		this.linkDuplicates();
+	}
+	
+	/**
+	 * Planning doesn't finish any files, so nothing is recorded for them.
+	 */
+	@Override
+	protected void finish(TrackJob job)
+	{
+		if (this.planOnly)
+		{
+			job.setOutcome(null);
+		}
+		
+		super.finish(job);
+	}
+	
+	@Override
+	protected boolean transform(TrackJob job) throws Exception
+	{
+		AudioFile audioFile = job.getAudioFile();
+		
+		// Get the new absolute file name
+		if (this.planOnly)
+		{
+			this.plan.add(job.getFile(), new File(this.generateFileName(audioFile)));
+			return false;
+		}
+		else if (this.plan != null)
+		{
+			job.setDestination(this.plan.getDestination(job.getFile()));
+		}
+		
+		File original = this.duplicates == null ? null : this.duplicates.get(job.getFile());
+		if (original != null)
+		{
+			if (this.duplicateMode == DuplicateMode.SKIP)
+			{
+				log.log("Skipped " + job.getFile().getAbsolutePath() + ", a duplicate of " + original.getAbsolutePath());
+			}
+			else
+			{
+				// Claimed for the original, so a duplicate with the same name as its original
+				// shares that name rather than getting a numbered one
+				if (this.plan == null)
 				{
-					continue;
+					job.setDestination(this.claim(original, new File(this.generateFileName(audioFile))));
 				}
 				
-				AudioFile newAudioFile = this.getAudioFile(newFile);
-				
-				// Update the ID3 tag information
-				this.cleanMetadata(newAudioFile);
+				// Try again next time if the run doesn't get as far as linking it
+				this.links.put(job.getFile(), job.getDestination());
+				job.setOutcome(null);
 			}
-			catch (Exception e)
+			
+			return false;
+		}
+		
+		if (this.plan == null)
+		{
+			job.setDestination(this.claim(job.getFile(), new File(this.generateFileName(audioFile))));
+		}
+		
+		// Clean up the tag in memory, it's written along with the copy
+		if (this.cleanTag(audioFile.getTag()))
+		{
+			job.setChanged(true);
+		}
+		
+		// Every file gets copied
+		return true;
+	}
+	
+	@Override
+	protected void write(TrackJob job) throws Exception
+	{
+		File file = job.getFile();
+		File newFile;
+		
+		if (this.isSinglePass(job))
+		{
+			newFile = this.copyWithTag(file, job.getAudioFile(), job.getDestination().getPath(), job.isChanged());
+		}
+		else
+		{
+			// Copy the file into its new home
+			newFile = this.copyFile(file, job.getDestination().getPath(), job.isChanged());
+			
+			// Write the changed tag to the copy
+			if (job.isChanged())
 			{
-				log.log("Tag could not be read: " + file.getAbsolutePath());
+				this.commitTo(job.getAudioFile(), newFile);
 			}
 		}
 		
-		log.log("Done.");
+		if (this.duplicates != null)
+		{
+			this.moved.put(file, newFile);
+		}
+	}
+	
+	@Override
+	protected boolean relocates()
+	{
+		return true;
 	}
 	
 	/**
-	 * Copys the given file to the given destination.
+	 * Takes the given destination for a file, or the first numbered one nobody else has
+	 * taken this run. Safe to call from several threads at once.
 	 * 
-	 * @param file The file to copy
-	 * @param newLocation The new location of this file
-	 * @return The new file
+	 * @param owner The file the destination is for
+	 * @param destination Where it should go
+	 * @return Where it goes
 	 */
-	protected File copyFile(File file, String newLocation)
+	protected File claim(File owner, File destination)
 	{
-		File newFile = new File(newLocation);
+		owner = owner.getAbsoluteFile();
+		File candidate = destination;
+		
+		for (int n = 2; ; n++)
+		{
+			File taken = this.claimed.putIfAbsent(MovePlan.key(candidate), owner);
+			if (taken == null || taken.equals(owner))
+			{
+				break;
+			}
+			
+			candidate = MovePlan.numbered(destination, n);
+		}
+		
+		if (candidate != destination)
+		{
+			this.collisions.incrementAndGet();
+		}
+		
+		return candidate;
+	}
+	
+	/**
+	 * Looks through the whole library for duplicates before anything is moved, if the
+	 * duplicate mode asks for it.
+	 */
+	protected void findDuplicates()
+	{
+		this.duplicates = null;
+		this.moved.clear();
+		this.links.clear();
+		
+		if (this.duplicateMode == DuplicateMode.KEEP)
+		{
+			return;
+		}
 		
+		log.log("Looking for duplicates...");
+		this.progressString = "Looking for duplicates...";
+		
+		ExecutorService executor = this.createExecutor();
 		try
 		{
-			FileUtils.copyFile(file, newFile);
+			this.duplicates = new DuplicateFinder(executor, this.hashCache).find(this.cull.claim());
+			log.log("Found " + this.duplicates.size() + " duplicates.");
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+		
+		if (this.hashCache != null)
+		{
+			try
+			{
+				this.hashCache.save();
+			}
+			catch (IOException e)
+			{
+				log.log("Hash cache could not be saved: " + this.hashCache.getFile().getAbsolutePath());
+			}
 		}
-		catch (Exception e)
+	}
+	
+	/**
+	 * Links every duplicate to its moved original, once all the originals are moved. With
+	 * a journal, the links are saved first, so a run that dies halfway through can finish
+	 * them even though the originals are gone from the library by then.
+	 */
+	protected void linkDuplicates()
+	{
+		PendingLinks pending = this.resumedLinks != null ? this.resumedLinks : new PendingLinks();
+		this.resumedLinks = null;
+		
+		for (Map.Entry<File, File> link : this.links.entrySet())
+		{
+			try
+			{
+				pending.add(link.getKey(), link.getValue(), this.destinationOf(this.duplicates.get(link.getKey())));
+			}
+			catch (IOException e)
+			{
+				log.log("Could not link duplicate " + link.getValue().getAbsolutePath() + ": " + e.getMessage());
+			}
+		}
+		
+		if (pending.isEmpty())
+		{
+			return;
+		}
+		
+		File saved = this.getPendingLinksFile();
+		if (saved != null)
+		{
+			try
+			{
+				pending.save(saved);
+			}
+			catch (IOException e)
+			{
+				log.log("Links could not be saved, a run that dies now won't finish them: " + saved.getAbsolutePath());
+			}
+		}
+		
+		// Links where it can, copies across volumes
+		FileTransfer linker = new FileTransfer(FileTransfer.Mode.LINK);
+		int linked = 0;
+		
+		for (PendingLinks.Link link : pending)
+		{
+			try
+			{
+				// Same tags, same name; the original is already there. Or an earlier run linked it.
+				if (TagWriter.isSameFile(link.target, link.link))
+				{
+					continue;
+				}
+				
+				linker.transfer(link.target, link.link);
+				linked++;
+			}
+			catch (IOException e)
+			{
+				log.log("Could not link duplicate " + link.link.getAbsolutePath() + ": " + e.getMessage());
+			}
+		}
+		
+		if (saved != null)
+		{
+			saved.delete();
+		}
+		
+		log.log("Linked " + linked + " duplicates.");
+	}
+	
+	/**
+	 * Where the links about to be made are kept while they're made, or null without a
+	 * journal to resume from.
+	 */
+	protected File getPendingLinksFile()
+	{
+		if (this.journal == null)
 		{
-			System.out.println("Could not copy file: " + file.getAbsolutePath());
 			return null;
 		}
 		
-		return newFile;
+		return new File(this.journal.getFile().getAbsoluteFile().getParentFile(), this.getName().toLowerCase() + ".links");
 	}
 	
 	/**
-	 * Cleans up the audio file's metadata in whatever way I see fit. Eat my OCD.
+	 * Reads the links a run that died didn't get to make.
 	 * 
-	 * @param file The file to clean
+	 * @return The links, or null if there are none
 	 */
-	protected void cleanMetadata(AudioFile file)
+	protected PendingLinks loadPendingLinks()
 	{
+		File saved = this.getPendingLinksFile();
+		if (saved == null || !saved.isFile())
+		{
+			return null;
+		}
+		
 		try
 		{
-			// Get the metadata
-			Tag tag = file.getTag();
-			
-			// Correct articles in albums and track names
-			StringExt album = new StringExt(tag.getFirst(FieldKey.ALBUM));
-			StringExt title = new StringExt(tag.getFirst(FieldKey.TITLE));
+			PendingLinks links = PendingLinks.load(saved);
+			log.log("Resuming, " + links.size() + " duplicates still have to be linked.");
 			
-			album.articlesToLower();
-			title.articlesToLower();
-			
-			// Only commit if this data need changing
-			if (!album.toString().equals(tag.getFirst(FieldKey.ALBUM)) || !title.toString().equals(tag.getFirst(FieldKey.TITLE)))
+			return links;
+		}
+		catch (IOException e)
+		{
+			log.log("Links of the last run could not be read: " + saved.getAbsolutePath());
+			return null;
+		}
+	}
+	
+	/**
+	 * Where an original ended up. That's usually where this run moved it, but an original
+	 * that was skipped, e.g. because it hasn't changed since the last run, is still where
+	 * that run put it.
+	 * 
+	 * @param original The original as it is in the library
+	 * @return Its new location
+	 * @throws IOException If the original isn't in its new location
+	 */
+	protected File destinationOf(File original) throws IOException
+	{
+		File target = this.moved.get(original);
+		if (target != null)
+		{
+			return target;
+		}
+		
+		if (this.plan != null)
+		{
+			target = this.plan.getDestination(original);
+		}
+		else
+		{
+			try
 			{
-				tag.setField(FieldKey.ALBUM, album.toString());
-				tag.setField(FieldKey.TITLE, title.toString());
-				
-				file.commit();
+				target = new File(this.generateFileName(this.getAudioFile(original)));
+			}
+			catch (Exception e)
+			{
+				throw new IOException("Tag could not be read: " + original.getAbsolutePath(), e);
 			}
 		}
-		catch (Exception e)
+		
+		if (target == null || !target.isFile())
 		{
-			System.out.println("Could update file metadata: " + file.getFile().getAbsolutePath());
+			throw new IOException("The original wasn't moved: " + original.getAbsolutePath());
 		}
+		
+		return target;
+	}
+	
+	/**
+	 * Whether the tag of this job's file is written while copying.
+	 */
+	protected boolean isSinglePass(TrackJob job)
+	{
+		return this.singlePass && job.getAudioFile().getTag() instanceof AbstractID3v2Tag;
+	}
+	
+	@Override
+	protected String getStartMessage()
+	{
+		return this.planOnly ? "Planning file transfer..." : "Starting file transfer...";
+	}
+	
+	/**
+	 * Copys (or links, or moves, depending on the transfer mode) the given file to the
+	 * given destination.
+	 * 
+	 * @param file The file to copy
+	 * @param newLocation The new location of this file
+	 * @param editable True if the new file is going to be written to afterwards
+	 * @return The new file
+	 * @throws IOException If the file couldn't be copied
+	 */
+	protected File copyFile(File file, String newLocation, boolean editable) throws IOException
+	{
+		File newFile = new File(newLocation);
+		this.transfer.transfer(file, newFile, editable);
+		
+		return newFile;
+	}
+	
+	/**
+	 * Copies the given file while writing its cleaned up tag into the copy, so the file
+	 * is read once and written once. If the tag wasn't changed, this is a plain copy.
+	 * 
+	 * @param file The file to copy
+	 * @param audioFile The parsed file, with its ID3v2 tag already cleaned in memory
+	 * @param newLocation The new location of this file
+	 * @param changed Whether the tag was changed
+	 * @return The new file
+	 * @throws IOException If the file couldn't be copied
+	 */
+	protected File copyWithTag(File file, AudioFile audioFile, String newLocation, boolean changed) throws IOException
+	{
+		if (!changed)
+		{
+			return this.copyFile(file, newLocation, false);
+		}
+		
+		File newFile = new File(newLocation);
+		this.transfer.transferWithTag(file, (AbstractID3v2Tag) audioFile.getTag(), newFile);
+		
+		return newFile;
+	}
+	
+	/**
+	 * Writes the tag of a parsed file to a copy of that file. The copy is identical to
+	 * the file that was parsed, so there's no need to parse it again.
+	 * 
+	 * @param audioFile The parsed original, with its tag changed in memory
+	 * @param copy The copy to write the tag to
+	 * @throws Exception If the tag couldn't be written
+	 */
+	protected void commitTo(AudioFile audioFile, File copy) throws Exception
+	{
+		audioFile.setFile(copy);
+		this.commit(audioFile);
+	}
+	
+	/**
+	 * Cleans up the tag in memory. Nothing is written to disk.
+	 * 
+	 * @param tag The tag to clean
+	 * @return True if the tag was changed
+	 * @throws Exception If a field couldn't be set
+	 */
+	protected boolean cleanTag(Tag tag) throws Exception
+	{
+		// Correct articles in albums and track names
+		StringExt album = new StringExt(tag.getFirst(FieldKey.ALBUM));
+		StringExt title = new StringExt(tag.getFirst(FieldKey.TITLE));
+		
+		album.articlesToLower();
+		title.articlesToLower();
+		
+		if (album.equals(tag.getFirst(FieldKey.ALBUM)) && title.equals(tag.getFirst(FieldKey.TITLE)))
+		{
+			return false;
+		}
+		
+		tag.setField(FieldKey.ALBUM, album.toString());
+		tag.setField(FieldKey.TITLE, title.toString());
+		
+		return true;
+	}
+	
+	/**
+	 * Sets what happens to the original files. Copying is the default; linking and moving
+	 * are much cheaper when the new location is on the same volume.
+	 * 
+	 * @param mode What to do with the original files
+	 */
+	public void setTransferMode(FileTransfer.Mode mode)
+	{
+		this.transfer = new FileTransfer(mode);
+	}
+	
+	/**
+	 * Sets whether the cleaned up tag is written while copying (one write per file)
+	 * instead of copying first and then committing the tag to the copy. Only
+	 * applies to files with an ID3v2 tag; anything else is always copied first.
+	 * 
+	 * @param singlePass True to write the tag while copying
+	 */
+	public void setSinglePass(boolean singlePass)
+	{
+		this.singlePass = singlePass;
+	}
+	
+	/**
+	 * Sets what happens to tracks with the exact same audio as another track, no matter
+	 * their tags. Looking for them means going through the whole library before anything
+	 * is moved; the hash cache makes that cheap for files that haven't changed.
+	 * 
+	 * @param mode What to do with duplicates
+	 * @param cache Audio sizes and hashes of earlier runs, or null to read every file
+	 */
+	public void setDuplicateMode(DuplicateMode mode, HashCache cache)
+	{
+		this.duplicateMode = mode;
+		this.hashCache = cache;
+	}
+	
+	/**
+	 * Sets the plan to follow. Only the files in it are moved, to where it says.
+	 * 
+	 * @param plan The plan, or null to work out every file's new name as it's moved
+	 */
+	public void setPlan(MovePlan plan)
+	{
+		this.plan = plan;
+	}
+	
+	/**
+	 * The plan being followed, or the one worked out by the last run when only planning.
+	 * 
+	 * @return The plan, or null if there is none
+	 */
+	public MovePlan getPlan()
+	{
+		return this.plan;
+	}
+	
+	/**
+	 * Sets the tag index to plan from. Files that haven't changed since they were indexed
+	 * are planned without being opened; the rest are read as usual.
+	 * 
+	 * @param index The index, or null to read every file's tags
+	 */
+	public void setTagIndex(TagIndex index)
+	{
+		this.tagIndex = index;
+	}
+	
+	/**
+	 * Sets whether a run only works out where every file would go, without moving
+	 * anything. The plan can then be saved for review and run later with setPlan().
+	 * 
+	 * @param planOnly True to only plan
+	 */
+	public void setPlanOnly(boolean planOnly)
+	{
+		this.planOnly = planOnly;
 	}
 	
 	/**
@@ -158,17 +748,40 @@ public class Mover extends AudioTagWorker
 		// Get the metadata
 		Tag tag = file.getTag();
 		
+		return this.generateFileName(tag.getFirst(FieldKey.ALBUM_ARTIST), tag.getFirst(FieldKey.ARTIST),
+			tag.getFirst(FieldKey.ALBUM), tag.getFirst(FieldKey.TITLE), tag.getFirst(FieldKey.DISC_NO),
+			tag.getFirst(FieldKey.TRACK));
+	}
+	
+	/**
+	 * Prepares a new file name and location from the tag index, without opening the file.
+	 * 
+	 * @param entry The file's entry in the index
+	 * @return The new absolute file name
+	 */
+	protected String generateFileName(TagIndex.Entry entry)
+	{
+		return this.generateFileName(entry.getFirst(FieldKey.ALBUM_ARTIST), entry.getFirst(FieldKey.ARTIST),
+			entry.getFirst(FieldKey.ALBUM), entry.getFirst(FieldKey.TITLE), entry.getFirst(FieldKey.DISC_NO),
+			entry.getFirst(FieldKey.TRACK));
+	}
+	
+	/**
+	 * Prepares a new file name and location from the values of the tag fields.
+	 */
+	protected String generateFileName(String albumArtist, String artistName, String albumName, String titleName,
+		String disc, String trackNo)
+	{
 		// Get the data we're going to be working with
-		StringExt artist = new StringExt(tag.getFirst(FieldKey.ALBUM_ARTIST));
-		StringExt album  = new StringExt(tag.getFirst(FieldKey.ALBUM));
-		StringExt title  = new StringExt(tag.getFirst(FieldKey.TITLE));
-		String disc      = tag.getFirst(FieldKey.DISC_NO);
-		String track     = String.format("%02d", Integer.parseInt(tag.getFirst(FieldKey.TRACK)));
+		StringExt artist = new StringExt(albumArtist);
+		StringExt album  = new StringExt(albumName);
+		StringExt title  = new StringExt(titleName);
+		String track     = String.format("%02d", Integer.parseInt(trackNo));
 		
 		// Make sure we actually got the artist
 		if (artist.length() == 0)
 		{
-			artist = new StringExt(tag.getFirst(FieldKey.ARTIST));
+			artist = new StringExt(artistName);
 		}
 		
 		// Drop invalid characters and other undesirables
@@ -181,7 +794,9 @@ public class Mover extends AudioTagWorker
 		title.articlesToLower();
 		// xx TEMP
 		
-		return this.newLocation + "\\" + artist + "\\" + album + "\\" + disc + "." + track + " - " + title + ".mp3";
+		File directory = new File(new File(this.newLocation, artist.toString()), album.toString());
+		
+		return new File(directory, disc + "." + track + " - " + title + ".mp3").getPath();
 	}
 	
 	@Override
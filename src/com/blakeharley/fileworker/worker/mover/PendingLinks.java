@@ -0,0 +1,184 @@
+package com.blakeharley.fileworker.worker.mover;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * The duplicates the mover is about to link, saved before it starts so a run that dies
+ * halfway can finish them. Once the originals have been moved there's nothing left in
+ * the library to tell the duplicates apart by, so without this the next run would move
+ * them as ordinary files.
+ * 
+ * The file is plain text with a header line and then one duplicate per line:
+ * 
+ *   duplicate  link  target
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class PendingLinks implements Iterable<PendingLinks.Link>
+{
+	protected static final Charset UTF8 = Charset.forName("UTF-8");
+	
+	protected static final String HEADER = "# FileWorker pending links v1";
+	
+	/**
+	 * A single link to make.
+	 */
+	public static class Link
+	{
+		/**
+		 * The duplicate, where it is in the library.
+		 */
+		public final File duplicate;
+		
+		/**
+		 * Where the link goes.
+		 */
+		public final File link;
+		
+		/**
+		 * The moved original the link points to.
+		 */
+		public final File target;
+		
+		public Link(File duplicate, File link, File target)
+		{
+			this.duplicate = duplicate.getAbsoluteFile();
+			this.link = link;
+			this.target = target;
+		}
+	}
+	
+	protected List<Link> links = new ArrayList<Link>();
+	
+	/**
+	 * The duplicates, to look them up quickly.
+	 */
+	protected Set<File> duplicates = new HashSet<File>();
+	
+	public void add(File duplicate, File link, File target)
+	{
+		Link added = new Link(duplicate, link, target);
+		
+		this.links.add(added);
+		this.duplicates.add(added.duplicate);
+	}
+	
+	/**
+	 * Whether the given file is one of the duplicates.
+	 * 
+	 * @param file A file in the library
+	 * @return True if it's linked from here
+	 */
+	public boolean contains(File file)
+	{
+		return this.duplicates.contains(file.getAbsoluteFile());
+	}
+	
+	public boolean isEmpty()
+	{
+		return this.links.isEmpty();
+	}
+	
+	public int size()
+	{
+		return this.links.size();
+	}
+	
+	@Override
+	public Iterator<Link> iterator()
+	{
+		return this.links.iterator();
+	}
+	
+	/**
+	 * Writes the links to disk and waits until they're there, since they're only any
+	 * use if the run dies.
+	 * 
+	 * @param file Where to save them
+	 * @throws IOException
+	 */
+	public void save(File file) throws IOException
+	{
+		File temp = new File(file.getAbsoluteFile().getParentFile(), file.getName() + ".tmp");
+		FileOutputStream out = new FileOutputStream(temp);
+		
+		try
+		{
+			Writer writer = new OutputStreamWriter(out, UTF8);
+			writer.write(HEADER + "\n");
+			
+			for (Link link : this.links)
+			{
+				writer.write(link.duplicate.getPath() + "\t" + link.link.getPath() + "\t" + link.target.getPath() + "\n");
+			}
+			
+			writer.flush();
+			out.getFD().sync();
+		}
+		finally
+		{
+			out.close();
+		}
+		
+		Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+	
+	/**
+	 * Reads links saved by a run that died.
+	 * 
+	 * @param file The saved links
+	 * @return The links
+	 * @throws IOException If the file can't be read or isn't a list of links
+	 */
+	public static PendingLinks load(File file) throws IOException
+	{
+		PendingLinks links = new PendingLinks();
+		BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF8));
+		
+		try
+		{
+			if (!HEADER.equals(reader.readLine()))
+			{
+				throw new IOException("Not a list of links: " + file.getPath());
+			}
+			
+			String line;
+			while ((line = reader.readLine()) != null)
+			{
+				if (line.length() == 0)
+				{
+					continue;
+				}
+				
+				String[] parts = line.split("\t", 3);
+				if (parts.length != 3)
+				{
+					throw new IOException("Bad line in list of links: " + line);
+				}
+				
+				links.add(new File(parts[0]), new File(parts[1]), new File(parts[2]));
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+		
+		return links;
+	}
+}
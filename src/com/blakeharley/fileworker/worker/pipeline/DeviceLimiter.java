@@ -0,0 +1,307 @@
+package com.blakeharley.fileworker.worker.pipeline;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileStore;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits how many files are written to each disk at the same time, and works out the
+ * limit for every disk as it goes.
+ * 
+ * A spinning disk gets slower with every file written to it at once, since its head has
+ * to jump between them, while an SSD only gets going with a few at a time. So instead of
+ * a fixed amount of threads, each disk (file store) gets its own limit. It starts at one
+ * and goes up by one for as long as that pays off. Every half a second or so the bytes
+ * written are compared with before the limit was last raised: an extra file in flight
+ * that didn't get noticeably more written only made every file take longer, so the limit
+ * is cut by a quarter and left alone for a bit. The limit keeps circling the point where
+ * the disk is as busy as it gets.
+ * 
+ * Waiting is done with a lock rather than synchronized, so virtual threads don't get
+ * pinned while they wait for their turn.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class DeviceLimiter
+{
+	/**
+	 * How long the writes are measured for before the limit is changed, in nanoseconds.
+	 */
+	protected static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(500);
+	
+	/**
+	 * How much more has to get written after the limit was raised for it to count.
+	 */
+	protected static final double MIN_GAIN = 0.05;
+	
+	/**
+	 * How many windows the limit is left alone for after it was cut.
+	 */
+	protected static final int HOLD_WINDOWS = 4;
+	
+	/**
+	 * The limit never goes above this, however fast the disk is.
+	 */
+	protected static final int MAX_LIMIT = 256;
+	
+	/**
+	 * A single disk, with its own limit.
+	 */
+	public static class Device
+	{
+		protected final String name;
+		
+		protected final ReentrantLock lock = new ReentrantLock();
+		protected final Condition available = this.lock.newCondition();
+		
+		protected int limit = 1;
+		protected int inFlight = 0;
+		
+		/**
+		 * The writes finished since the window started, and what they got through.
+		 */
+		protected long windowStart = System.nanoTime();
+		protected int windowFiles = 0;
+		protected long windowBytes = 0;
+		
+		/**
+		 * Whether the limit held anyone back during the window. A limit nobody runs into
+		 * says nothing about the disk, so it's only changed when it did.
+		 */
+		protected boolean windowFull = false;
+		
+		/**
+		 * Bytes per second in the last window.
+		 */
+		protected double throughput = 0;
+		
+		/**
+		 * Whether the limit was raised at the end of the last window.
+		 */
+		protected boolean raised = false;
+		
+		/**
+		 * The windows left before the limit may go up again.
+		 */
+		protected int hold = 0;
+		
+		public Device(String name)
+		{
+			this.name = name;
+		}
+		
+		/**
+		 * Waits until there's room for another write.
+		 * 
+		 * @throws InterruptedException
+		 */
+		public void acquire() throws InterruptedException
+		{
+			this.lock.lock();
+			
+			try
+			{
+				while (this.inFlight >= this.limit)
+				{
+					this.windowFull = true;
+					this.available.await();
+				}
+				
+				this.inFlight++;
+				if (this.inFlight == this.limit)
+				{
+					this.windowFull = true;
+				}
+			}
+			finally
+			{
+				this.lock.unlock();
+			}
+		}
+		
+		/**
+		 * Makes room for the next write, and takes note of how this one went.
+		 * 
+		 * @param bytes The bytes written, or zero if the write failed
+		 */
+		public void release(long bytes)
+		{
+			long now = System.nanoTime();
+			this.lock.lock();
+			
+			try
+			{
+				this.inFlight--;
+				this.windowFiles++;
+				this.windowBytes += bytes;
+				
+				if (now - this.windowStart >= WINDOW_NANOS && this.windowFiles >= this.limit)
+				{
+					this.adjust(now);
+				}
+				
+				this.available.signalAll();
+			}
+			finally
+			{
+				this.lock.unlock();
+			}
+		}
+		
+		/**
+		 * Changes the limit based on the window that just ended, then starts a new one.
+		 * Only called with the lock held.
+		 */
+		protected void adjust(long now)
+		{
+			double throughput = this.windowBytes * 1e9 / (now - this.windowStart);
+			
+			if (this.raised && throughput < this.throughput * (1 + MIN_GAIN))
+			{
+				// Files queue up on the disk without getting any more done
+				this.limit = Math.max(1, Math.min(this.limit - 1, this.limit * 3 / 4));
+				this.raised = false;
+				this.hold = HOLD_WINDOWS;
+			}
+			else if (this.hold > 0)
+			{
+				this.hold--;
+			}
+			else if (this.windowFull && this.limit < MAX_LIMIT)
+			{
+				this.limit++;
+				this.raised = true;
+			}
+			else
+			{
+				this.raised = false;
+			}
+			
+			this.throughput = throughput;
+			this.windowStart = now;
+			this.windowFiles = 0;
+			this.windowBytes = 0;
+			this.windowFull = false;
+		}
+		
+		public String getName()
+		{
+			return this.name;
+		}
+		
+		/**
+		 * The amount of files that may be written at the same time right now.
+		 * 
+		 * @return The limit
+		 */
+		public int getLimit()
+		{
+			this.lock.lock();
+			
+			try
+			{
+				return this.limit;
+			}
+			finally
+			{
+				this.lock.unlock();
+			}
+		}
+	}
+	
+	/**
+	 * Every disk written to so far.
+	 */
+	protected ConcurrentMap<FileStore, Device> devices = new ConcurrentHashMap<FileStore, Device>();
+	
+	/**
+	 * The disk of every directory written to so far, since looking up a file store is
+	 * much slower than a map.
+	 */
+	protected Map<File, Device> directories = new ConcurrentHashMap<File, Device>();
+	
+	/**
+	 * Where files go that are on a disk that couldn't be looked up.
+	 */
+	protected Device unknown = new Device("unknown");
+	
+	/**
+	 * Gets the disk the given file is on, or will be on once it's written. Safe to call
+	 * from several threads at once.
+	 * 
+	 * @param file The file about to be written
+	 * @return Its disk
+	 */
+	public Device forFile(File file)
+	{
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (directory == null)
+		{
+			return this.unknown;
+		}
+		
+		Device device = this.directories.get(directory);
+		if (device != null)
+		{
+			return device;
+		}
+		
+		// A new file's directory might not be there yet either
+		File existing = directory;
+		while (existing != null && !existing.exists())
+		{
+			existing = existing.getParentFile();
+		}
+		
+		device = this.unknown;
+		
+		if (existing != null)
+		{
+			try
+			{
+				FileStore store = Files.getFileStore(existing.toPath());
+				Device created = new Device(store.toString());
+				
+				device = this.devices.putIfAbsent(store, created);
+				if (device == null)
+				{
+					device = created;
+				}
+			}
+			catch (IOException e)
+			{
+				// Still limited, just along with everything else nobody knows about
+			}
+		}
+		
+		this.directories.put(directory, device);
+		
+		return device;
+	}
+	
+	/**
+	 * Every disk written to so far.
+	 * 
+	 * @return The disks
+	 */
+	public List<Device> getDevices()
+	{
+		List<Device> list = new ArrayList<Device>(this.devices.values());
+		
+		if (this.directories.containsValue(this.unknown))
+		{
+			list.add(this.unknown);
+		}
+		
+		return list;
+	}
+}
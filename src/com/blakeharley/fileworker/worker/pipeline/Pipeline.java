@@ -0,0 +1,333 @@
+package com.blakeharley.fileworker.worker.pipeline;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs items through a line of stages, each with its own threads and a bounded queue in
+ * front of it. Stages work on different items at the same time, so a CPU-heavy stage and
+ * a disk-heavy one overlap instead of taking turns, and the slowest stage sets the pace.
+ * When a stage falls behind its queue fills up and everything before it waits, so the
+ * amount of items in flight stays bounded.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class Pipeline<T>
+{
+	/**
+	 * One step of the work.
+	 */
+	public interface Stage<T>
+	{
+		/**
+		 * Works on an item. Called from the stage's own threads, so this has to be
+		 * thread safe if the stage has more than one.
+		 * 
+		 * @param item The item to work on
+		 * @return True to pass the item on, false if it's finished with
+		 * @throws Exception If the item couldn't be worked on
+		 */
+		public boolean process(T item) throws Exception;
+	}
+	
+	/**
+	 * Gets told when items leave the pipeline.
+	 */
+	public interface Listener<T>
+	{
+		/**
+		 * Called when an item made it through the last stage or a stage was finished
+		 * with it early.
+		 * 
+		 * @param item The item
+		 */
+		public void finished(T item);
+		
+		/**
+		 * Called when a stage threw.
+		 * 
+		 * @param item The item
+		 * @param e What the stage threw, wrapped in an ExecutionException if it wasn't an
+		 *          Exception
+		 */
+		public void failed(T item, Exception e);
+	}
+	
+	/**
+	 * Marks the end of the items in a queue.
+	 */
+	protected static final Object END = new Object();
+	
+	/**
+	 * A stage along with its queue and threads.
+	 */
+	protected class StageRunner implements Runnable
+	{
+		protected String name;
+		protected Stage<T> stage;
+		protected BlockingQueue<Object> queue;
+		protected Thread[] threads;
+		
+		/**
+		 * The threads that haven't seen the end yet.
+		 */
+		protected AtomicInteger running;
+		
+		protected StageRunner next;
+		
+		public StageRunner(String name, Stage<T> stage, int threads, int capacity)
+		{
+			this.name = name;
+			this.stage = stage;
+			this.queue = new ArrayBlockingQueue<Object>(capacity);
+			this.threads = new Thread[threads];
+			this.running = new AtomicInteger(threads);
+		}
+		
+		public void start()
+		{
+			for (int i = 0; i < this.threads.length; i++)
+			{
+				this.threads[i] = new Thread(this, "Pipeline " + this.name + " " + (i + 1));
+				this.threads[i].setDaemon(true);
+				this.threads[i].start();
+			}
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public void run()
+		{
+			try
+			{
+				while (true)
+				{
+					Object taken = this.queue.take();
+					
+					if (taken == END)
+					{
+						// Let the other threads of this stage see it too
+						this.queue.put(END);
+						break;
+					}
+					
+					this.handle((T) taken);
+				}
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+			finally
+			{
+				// The last one out tells the next stage, however it got out. Otherwise the
+				// next stage waits for the end forever and so does finish().
+				if (this.running.decrementAndGet() == 0 && this.next != null)
+				{
+					this.next.end();
+				}
+			}
+		}
+		
+		/**
+		 * Puts the end in the queue, even if the thread doing it was interrupted.
+		 */
+		protected void end()
+		{
+			boolean interrupted = false;
+			
+			while (true)
+			{
+				try
+				{
+					this.queue.put(END);
+					break;
+				}
+				catch (InterruptedException e)
+				{
+					interrupted = true;
+				}
+			}
+			
+			if (interrupted)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		
+		protected void handle(T item) throws InterruptedException
+		{
+			boolean passOn;
+			
+			try
+			{
+				passOn = this.stage.process(item);
+			}
+			catch (Exception e)
+			{
+				failed(item, e);
+				return;
+			}
+			catch (Throwable e)
+			{
+				// An Error only takes this item down, not the whole stage
+				failed(item, new ExecutionException(e));
+				return;
+			}
+			
+			if (passOn && this.next != null)
+			{
+				// Waits here if the next stage is behind
+				this.next.queue.put(item);
+			}
+			else
+			{
+				finished(item);
+			}
+		}
+	}
+	
+	protected List<StageRunner> stages = new ArrayList<StageRunner>();
+	
+	protected Listener<T> listener;
+	
+	protected boolean started = false;
+	
+	/**
+	 * Creates a pipeline that reports finished items to the given listener.
+	 * 
+	 * @param listener Gets told about every item that leaves the pipeline
+	 */
+	public Pipeline(Listener<T> listener)
+	{
+		this.listener = listener;
+	}
+	
+	/**
+	 * Adds a stage to the end of the line.
+	 * 
+	 * @param name The name of the stage, used for its threads
+	 * @param threads How many items the stage works on at once
+	 * @param capacity How many items may wait in front of the stage
+	 * @param stage The stage
+	 * @return This pipeline
+	 */
+	public Pipeline<T> addStage(String name, int threads, int capacity, Stage<T> stage)
+	{
+		if (this.started)
+		{
+			throw new IllegalStateException("The pipeline is already running");
+		}
+		
+		if (threads < 1 || capacity < 1)
+		{
+			throw new IllegalArgumentException("Threads and capacity must be at least one");
+		}
+		
+		StageRunner runner = new StageRunner(name, stage, threads, capacity);
+		
+		if (!this.stages.isEmpty())
+		{
+			this.stages.get(this.stages.size() - 1).next = runner;
+		}
+		this.stages.add(runner);
+		
+		return this;
+	}
+	
+	/**
+	 * Starts the threads of every stage.
+	 */
+	public void start()
+	{
+		if (this.stages.isEmpty())
+		{
+			throw new IllegalStateException("The pipeline has no stages");
+		}
+		
+		this.started = true;
+		for (StageRunner stage : this.stages)
+		{
+			stage.start();
+		}
+	}
+	
+	/**
+	 * Hands an item to the first stage, waiting for room if the pipeline is full.
+	 * 
+	 * @param item The item
+	 * @throws InterruptedException
+	 */
+	public void submit(T item) throws InterruptedException
+	{
+		this.stages.get(0).queue.put(item);
+	}
+	
+	/**
+	 * Tells the listener an item made it through. Whatever the listener throws is
+	 * dropped, so it can't take a stage's thread with it.
+	 */
+	protected void finished(T item)
+	{
+		try
+		{
+			this.listener.finished(item);
+		}
+		catch (Throwable e)
+		{
+			this.uncaught(e);
+		}
+	}
+	
+	/**
+	 * Tells the listener a stage threw. Same as above.
+	 */
+	protected void failed(T item, Exception e)
+	{
+		try
+		{
+			this.listener.failed(item, e);
+		}
+		catch (Throwable t)
+		{
+			this.uncaught(t);
+		}
+	}
+	
+	/**
+	 * Hands something the listener threw to the thread's handler, which prints it by
+	 * default, and carries on.
+	 */
+	protected void uncaught(Throwable e)
+	{
+		Thread thread = Thread.currentThread();
+		Thread.UncaughtExceptionHandler handler = thread.getUncaughtExceptionHandler();
+		
+		if (handler != null)
+		{
+			handler.uncaughtException(thread, e);
+		}
+	}
+	
+	/**
+	 * Lets the stages know no more items are coming and waits for them to finish.
+	 * 
+	 * @throws InterruptedException
+	 */
+	public void finish() throws InterruptedException
+	{
+		this.stages.get(0).queue.put(END);
+		
+		for (StageRunner stage : this.stages)
+		{
+			for (Thread thread : stage.threads)
+			{
+				thread.join();
+			}
+		}
+	}
+}
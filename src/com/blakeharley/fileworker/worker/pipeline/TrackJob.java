@@ -0,0 +1,139 @@
+package com.blakeharley.fileworker.worker.pipeline;
+
+import java.io.File;
+
+import org.jaudiotagger.audio.AudioFile;
+
+import com.blakeharley.fileworker.utils.Manifest;
+import com.blakeharley.fileworker.worker.Metrics;
+
+/**
+ * Everything a worker knows about a single file while it works on it. A job is only
+ * ever handled by one thread at a time, but may move between threads from stage to
+ * stage, so nothing in here needs locking.
+ * 
+ * @author Blake Harley <blake@blakeharley.com>
+ */
+public class TrackJob
+{
+	/**
+	 * The file being worked on.
+	 */
+	protected File file;
+	
+	/**
+	 * The parsed file, once its tags have been read.
+	 */
+	protected AudioFile audioFile;
+	
+	/**
+	 * Whether the transform changed the tag.
+	 */
+	protected boolean changed = false;
+	
+	/**
+	 * Where the file is going, for workers that put files somewhere else.
+	 */
+	protected File destination;
+	
+	/**
+	 * What to record in the manifest once the job is done, or null for nothing.
+	 */
+	protected Manifest.Outcome outcome = Manifest.Outcome.DONE;
+	
+	/**
+	 * The stage the job is at, so a failure can say what went wrong.
+	 */
+	protected Metrics.Stage stage = Metrics.Stage.READ;
+	
+	/**
+	 * When the job was started, from System.nanoTime().
+	 */
+	protected long started = System.nanoTime();
+	
+	/**
+	 * Creates a job for the given file.
+	 * 
+	 * @param file The file to work on
+	 */
+	public TrackJob(File file)
+	{
+		this.file = file;
+	}
+	
+	public File getFile()
+	{
+		return this.file;
+	}
+	
+	public AudioFile getAudioFile()
+	{
+		return this.audioFile;
+	}
+	
+	public void setAudioFile(AudioFile audioFile)
+	{
+		this.audioFile = audioFile;
+	}
+	
+	public boolean isChanged()
+	{
+		return this.changed;
+	}
+	
+	public void setChanged(boolean changed)
+	{
+		this.changed = changed;
+	}
+	
+	public File getDestination()
+	{
+		return this.destination;
+	}
+	
+	public void setDestination(File destination)
+	{
+		this.destination = destination;
+	}
+	
+	/**
+	 * The file that was written to: the destination if there is one, otherwise the file
+	 * itself.
+	 * 
+	 * @return The output file
+	 */
+	public File getOutput()
+	{
+		return this.destination != null ? this.destination : this.file;
+	}
+	
+	public Manifest.Outcome getOutcome()
+	{
+		return this.outcome;
+	}
+	
+	/**
+	 * Sets what gets recorded for the file when the job is done.
+	 * 
+	 * @param outcome The outcome, or null to leave the file for the next run
+	 */
+	public void setOutcome(Manifest.Outcome outcome)
+	{
+		this.outcome = outcome;
+	}
+	
+	public Metrics.Stage getStage()
+	{
+		return this.stage;
+	}
+	
+	public void setStage(Metrics.Stage stage)
+	{
+		this.stage = stage;
+	}
+	
+	public long getStarted()
+	{
+		return this.started;
+	}
+}